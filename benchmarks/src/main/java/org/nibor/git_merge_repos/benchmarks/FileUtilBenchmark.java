@@ -0,0 +1,72 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.nibor.git_merge_repos.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading the parent tags of <code>parentTag.properties</code>, in
+ * a temporary file instead of the working directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileUtilBenchmark {
+
+    /**
+     * Number of branches, each with a parent tag entry.
+     */
+    @Param({"100", "10000"})
+    public int entries;
+
+    private File file;
+
+    private Map<String, String> parentTags;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("parentTag", ".properties").toFile();
+        parentTags = new TreeMap<>();
+        List<String> tags = Fixtures.tagNames(entries, 1);
+        for (int i = 0; i < tags.size(); i++) {
+            parentTags.put(tags.get(i), i == 0 ? null : tags.get(i - 1));
+        }
+        FileUtil.saveMap(parentTags, file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file.toPath());
+    }
+
+    @Benchmark
+    public void saveMap() {
+        FileUtil.saveMap(parentTags, file);
+    }
+
+    @Benchmark
+    public Map<String, String> loadMap() {
+        return FileUtil.loadMap(file);
+    }
+}
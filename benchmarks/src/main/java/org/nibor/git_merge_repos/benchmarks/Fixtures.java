@@ -0,0 +1,122 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.URIish;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the inputs of the benchmarks in memory, so that they run offline and
+ * don't depend on the contents of the disk.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static InMemoryRepository newRepository(String name) {
+        return new InMemoryRepository(new DfsRepositoryDescription(name));
+    }
+
+    /**
+     * @return configs of input repositories named <code>repo0, repo1...</code>,
+     *         each in a directory of its name or all in the root
+     */
+    static List<SubtreeConfig> subtreeConfigs(int repositories, boolean subdirectories) throws URISyntaxException {
+        List<SubtreeConfig> configs = new ArrayList<>();
+        for (int i = 0; i < repositories; i++) {
+            String name = "repo" + i;
+            configs.add(new SubtreeConfig(subdirectories ? name : ".", new URIish("/input/" + name)));
+        }
+        return configs;
+    }
+
+    /**
+     * Writes a tree with the given number of directories, each with the given
+     * number of files. Names start with the prefix, so that trees with
+     * different prefixes don't overlap.
+     */
+    static ObjectId writeTree(ObjectInserter inserter, String prefix, int directories, int filesPerDirectory)
+            throws IOException {
+        TreeFormatter root = new TreeFormatter();
+        for (int d = 0; d < directories; d++) {
+            // Padded, so that entries are appended in sorted order
+            String directoryName = String.format("%s-dir%05d", prefix, d);
+            TreeFormatter directory = new TreeFormatter();
+            for (int f = 0; f < filesPerDirectory; f++) {
+                String fileName = String.format("file%05d.txt", f);
+                String content = directoryName + "/" + fileName + "\n";
+                ObjectId blob = inserter.insert(Constants.OBJ_BLOB, Constants.encode(content));
+                directory.append(fileName, FileMode.REGULAR_FILE, blob);
+            }
+            root.append(directoryName, FileMode.TREE, directory.insertTo(inserter));
+        }
+        return root.insertTo(inserter);
+    }
+
+    static ObjectId writeCommit(ObjectInserter inserter, ObjectId treeId, long time) throws IOException {
+        PersonIdent ident = new PersonIdent("Benchmark", "benchmark@example.com", time, 0);
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(treeId);
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage("Commit of " + treeId.name());
+        return inserter.insert(commit);
+    }
+
+    /**
+     * Creates all refs at once.
+     */
+    static void createRefs(Repository repository, Map<String, ObjectId> refs) throws IOException {
+        BatchRefUpdate update = repository.getRefDatabase().newBatchUpdate();
+        update.setAllowNonFastForwards(true);
+        for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+            update.addCommand(new ReceiveCommand(ObjectId.zeroId(), ref.getValue(), ref.getKey()));
+        }
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            update.execute(revWalk, NullProgressMonitor.INSTANCE);
+        }
+        for (ReceiveCommand command : update.getCommands()) {
+            if (command.getResult() != ReceiveCommand.Result.OK) {
+                throw new IOException("Creating " + command.getRefName() + " failed: " + command.getResult());
+            }
+        }
+    }
+
+    /**
+     * @return tags following the branch naming convention,
+     *         <code>9.&lt;branch&gt;-&lt;n&gt;</code>, with every tenth tag
+     *         not belonging to a branch
+     */
+    static List<String> tagNames(int branches, int tagsPerBranch) {
+        List<String> tags = new ArrayList<>();
+        for (int b = 0; b < branches; b++) {
+            for (int t = 1; t <= tagsPerBranch; t++) {
+                tags.add(t % 10 == 0 ? "hotfix-" + b + "." + t : branchName(b) + "-" + t);
+            }
+        }
+        return tags;
+    }
+
+    static String branchName(int branch) {
+        return "9." + branch;
+    }
+}
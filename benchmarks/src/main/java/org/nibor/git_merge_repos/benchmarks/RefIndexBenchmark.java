@@ -0,0 +1,97 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.nibor.git_merge_repos.merger.RefIndex;
+import org.nibor.git_merge_repos.merger.RepoMerger;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the tag of every input repository, as the mergers do through
+ * <code>AbstractMerger.resolveRefs</code>, and building the index from the
+ * fetched refs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RefIndexBenchmark {
+
+    @Param({"3", "9"})
+    public int repositories;
+
+    @Param({"1000", "10000"})
+    public int tags;
+
+    private InMemoryRepository repository;
+
+    private List<SubtreeConfig> configs;
+
+    private RefIndex refIndex;
+
+    private String[] names;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        configs = Fixtures.subtreeConfigs(repositories, true);
+        repository = Fixtures.newRepository("merged");
+        ObjectId commitId;
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            commitId = Fixtures.writeCommit(inserter, Fixtures.writeTree(inserter, "file", 1, 1), 1500000000000L);
+            inserter.flush();
+        }
+
+        List<String> tagNames = Fixtures.tagNames(tags / 20, 20);
+        names = tagNames.toArray(new String[tagNames.size()]);
+        Map<String, ObjectId> refs = new HashMap<>();
+        for (SubtreeConfig config : configs) {
+            for (String name : names) {
+                refs.put(RepoMerger.TAGS + config.getRemoteName() + "/" + name, commitId);
+            }
+            refs.put(RepoMerger.HEADS + config.getRemoteName() + "/master", commitId);
+        }
+        Fixtures.createRefs(repository, refs);
+        refIndex = RefIndex.build(repository, configs);
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Benchmark
+    public Map<SubtreeConfig, ObjectId> resolve() {
+        String name = names[next];
+        next = (next + 1) % names.length;
+        return refIndex.resolve(RepoMerger.TAGS, name);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RefIndex build() throws IOException {
+        return RefIndex.build(repository, configs);
+    }
+}
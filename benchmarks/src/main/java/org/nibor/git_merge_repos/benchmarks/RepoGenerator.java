@@ -0,0 +1,286 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates bare input repositories with the branch and tag layout the merge
+ * expects: release branches <code>9.0, 9.1...</code>, each forked from a tag
+ * in the middle of the previous one and tagged <code>9.1-1, 9.1-2...</code>
+ * along its history, starting from <code>8.0</code> (also
+ * <code>master</code>). Each repository keeps its files in a directory of its
+ * own name, so they can be merged into the root (<code>repo:.</code>) without
+ * overlapping.
+ * <p>
+ * The output only depends on the options, so the same inputs can be generated
+ * on every machine:
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.nibor.git_merge_repos.benchmarks.RepoGenerator &lt;dir&gt; [--name=value]*
+ * </pre>
+ *
+ * Options are <code>--repos</code>, <code>--branches</code>,
+ * <code>--tags-per-branch</code>, <code>--commits-per-tag</code>,
+ * <code>--files</code>, <code>--annotated-percent</code> (tags that are
+ * annotated instead of lightweight), <code>--overlap-percent</code> (branches,
+ * and so tag names, present in all repositories; the others are only in one)
+ * and <code>--seed</code>.
+ */
+public class RepoGenerator {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    private static final long START_TIME = 1500000000000L;
+
+    private final int repositories;
+
+    private final int branches;
+
+    private final int tagsPerBranch;
+
+    private final int commitsPerTag;
+
+    private final int files;
+
+    private final int annotatedPercent;
+
+    private final int overlapPercent;
+
+    private final long seed;
+
+    // Commit time, one minute further for each commit
+    private long time;
+
+    public RepoGenerator(Map<String, String> options) {
+        repositories = intOption(options, "repos", 9);
+        branches = intOption(options, "branches", 800);
+        tagsPerBranch = intOption(options, "tags-per-branch", 50);
+        commitsPerTag = intOption(options, "commits-per-tag", 2);
+        files = intOption(options, "files", 1000);
+        annotatedPercent = intOption(options, "annotated-percent", 50);
+        overlapPercent = intOption(options, "overlap-percent", 80);
+        seed = intOption(options, "seed", 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: RepoGenerator <dir> [--repos=9] [--branches=800] [--tags-per-branch=50]"
+                    + " [--commits-per-tag=2] [--files=1000] [--annotated-percent=50] [--overlap-percent=80]"
+                    + " [--seed=1]");
+            System.exit(64);
+        }
+        File directory = new File(args[0]);
+        RepoGenerator generator = new RepoGenerator(parseOptions(args, 1));
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < generator.repositories; i++) {
+            File repository = new File(directory, "repo" + i + ".git");
+            long start = System.currentTimeMillis();
+            int refs = generator.generate(repository, i);
+            System.out.println("Generated " + repository + " with " + refs + " refs in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            arguments.append(' ').append(repository.getAbsolutePath()).append(":.");
+        }
+        System.out.println("Repositories:" + arguments);
+    }
+
+    static Map<String, String> parseOptions(String[] args, int from) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = from; i < args.length; i++) {
+            String[] nameAndValue = args[i].replaceFirst("^--", "").split("=", 2);
+            options.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "true");
+        }
+        return options;
+    }
+
+    static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * @return number of refs created
+     */
+    public int generate(File directory, int index) throws IOException {
+        if (directory.exists()) {
+            throw new IOException(directory + " already exists");
+        }
+        String name = "repo" + index;
+        Random random = new Random(seed * 31 + index);
+        time = START_TIME;
+        try (FileRepository repository = new FileRepository(directory)) {
+            repository.create(true);
+            Map<String, ObjectId> refs = new LinkedHashMap<>();
+            try (ObjectInserter inserter = repository.getObjectDatabase().newPackInserter()) {
+                Writer writer = new Writer(inserter, name, random, refs);
+                // Branch 8.0 sorts before the others, so its tags are merged before the ones based on them
+                Snapshot master = writer.initialCommit();
+                master = writer.commitTags(master, "8.0", Math.max(1, tagsPerBranch / 5), null);
+                refs.put(Constants.R_HEADS + "8.0", master.commitId);
+                refs.put(Constants.R_HEADS + "master", master.commitId);
+
+                int sharedBranches = branches * overlapPercent / 100;
+                Snapshot forkPoint = master;
+                for (int b = 0; b < branches; b++) {
+                    boolean shared = b < sharedBranches;
+                    if (!shared && b % repositories != index) {
+                        continue;
+                    }
+                    String branch = Fixtures.branchName(b);
+                    Snapshot[] middle = new Snapshot[1];
+                    Snapshot tip = writer.commitTags(shared ? forkPoint : master, branch, tagsPerBranch, middle);
+                    refs.put(Constants.R_HEADS + branch, tip.commitId);
+                    if (shared) {
+                        forkPoint = middle[0];
+                    }
+                }
+                inserter.flush();
+            }
+            Fixtures.createRefs(repository, refs);
+            return refs.size();
+        }
+    }
+
+    /**
+     * Files of a commit: the blob of every file and the tree of every
+     * directory.
+     */
+    private static class Snapshot {
+
+        private final ObjectId[] blobs;
+
+        private final ObjectId[] directoryTrees;
+
+        private ObjectId commitId;
+
+        Snapshot(ObjectId[] blobs, ObjectId[] directoryTrees, ObjectId commitId) {
+            this.blobs = blobs;
+            this.directoryTrees = directoryTrees;
+            this.commitId = commitId;
+        }
+
+        Snapshot copy() {
+            return new Snapshot(blobs.clone(), directoryTrees.clone(), commitId);
+        }
+    }
+
+    private class Writer {
+
+        private final ObjectInserter inserter;
+
+        private final String name;
+
+        private final Random random;
+
+        private final Map<String, ObjectId> refs;
+
+        private int commits;
+
+        Writer(ObjectInserter inserter, String name, Random random, Map<String, ObjectId> refs) {
+            this.inserter = inserter;
+            this.name = name;
+            this.random = random;
+            this.refs = refs;
+        }
+
+        Snapshot initialCommit() throws IOException {
+            int directories = (files + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY;
+            Snapshot snapshot = new Snapshot(new ObjectId[files], new ObjectId[directories], null);
+            for (int f = 0; f < files; f++) {
+                snapshot.blobs[f] = insertBlob(f, 0);
+            }
+            for (int d = 0; d < directories; d++) {
+                snapshot.directoryTrees[d] = insertDirectory(snapshot, d);
+            }
+            snapshot.commitId = insertCommit(snapshot, null, "Initial commit of " + name);
+            return snapshot;
+        }
+
+        /**
+         * Commits on top of the snapshot, tagging every
+         * <code>commitsPerTag</code> commits.
+         *
+         * @param middle
+         *            receives the snapshot of the tag in the middle, if not
+         *            <code>null</code>
+         * @return snapshot of the last commit
+         */
+        Snapshot commitTags(Snapshot base, String branch, int tags, Snapshot[] middle) throws IOException {
+            Snapshot snapshot = base.copy();
+            for (int t = 1; t <= tags; t++) {
+                for (int c = 0; c < commitsPerTag; c++) {
+                    ObjectId parent = snapshot.commitId;
+                    int file = random.nextInt(files);
+                    snapshot.blobs[file] = insertBlob(file, ++commits);
+                    snapshot.directoryTrees[file / FILES_PER_DIRECTORY] = insertDirectory(snapshot,
+                            file / FILES_PER_DIRECTORY);
+                    snapshot.commitId = insertCommit(snapshot, parent, "Change " + commits + " on " + branch);
+                }
+                String tag = branch + "-" + t;
+                refs.put(Constants.R_TAGS + tag, random.nextInt(100) < annotatedPercent
+                        ? insertTag(tag, snapshot.commitId) : snapshot.commitId);
+                if (middle != null && t == (tags + 1) / 2) {
+                    middle[0] = snapshot.copy();
+                }
+            }
+            return snapshot;
+        }
+
+        private ObjectId insertBlob(int file, int change) throws IOException {
+            return inserter.insert(Constants.OBJ_BLOB,
+                    Constants.encode(name + " file " + file + " change " + change + "\n"));
+        }
+
+        private ObjectId insertDirectory(Snapshot snapshot, int directory) throws IOException {
+            TreeFormatter formatter = new TreeFormatter();
+            int end = Math.min(files, (directory + 1) * FILES_PER_DIRECTORY);
+            for (int f = directory * FILES_PER_DIRECTORY; f < end; f++) {
+                formatter.append(String.format("f%05d.txt", f), FileMode.REGULAR_FILE, snapshot.blobs[f]);
+            }
+            return formatter.insertTo(inserter);
+        }
+
+        private ObjectId insertCommit(Snapshot snapshot, ObjectId parent, String message) throws IOException {
+            TreeFormatter directories = new TreeFormatter();
+            for (int d = 0; d < snapshot.directoryTrees.length; d++) {
+                directories.append(String.format("d%05d", d), FileMode.TREE, snapshot.directoryTrees[d]);
+            }
+            TreeFormatter root = new TreeFormatter();
+            root.append(name, FileMode.TREE, directories.insertTo(inserter));
+
+            time += 60 * 1000;
+            PersonIdent ident = new PersonIdent("Generator", "generator@example.com", time, 0);
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(root.insertTo(inserter));
+            if (parent != null) {
+                commit.setParentId(parent);
+            }
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage(message + "\n");
+            return inserter.insert(commit);
+        }
+
+        private ObjectId insertTag(String tag, ObjectId commitId) throws IOException {
+            TagBuilder tagBuilder = new TagBuilder();
+            tagBuilder.setTag(tag);
+            tagBuilder.setObjectId(commitId, Constants.OBJ_COMMIT);
+            tagBuilder.setTagger(new PersonIdent("Generator", "generator@example.com", time, 0));
+            tagBuilder.setMessage("Release " + tag + "\n");
+            return inserter.insert(tagBuilder);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.nibor.git_merge_repos.Main;
+import org.nibor.git_merge_repos.log.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs <code>prepare</code> and then <code>merge</code> on the repositories
+ * of a directory, e.g. ones made by {@link RepoGenerator}, each in a JVM of
+ * its own, and reports per command the wall time, the peak resident set size
+ * and heap (from the metrics report the command writes) and the refs and
+ * objects of the merged repository afterwards:
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.nibor.git_merge_repos.benchmarks.ScaleBenchmark &lt;inputDir&gt; &lt;workDir&gt; [--name=value]*
+ * </pre>
+ *
+ * Options are passed on to both commands, except for
+ * <code>--jvm-options=</code>, which is passed to the JVMs. The commands run
+ * in the work directory, which gets their logs and metrics reports, their
+ * output in <code>&lt;command&gt;.out</code>, the merged repository in
+ * <code>merged</code> and the summary in <code>scale-report.json</code>.
+ */
+public class ScaleBenchmark {
+
+    private static final String[] COMMANDS = { "prepare", "merge" };
+
+    private static final Pattern PEAK_RSS = Pattern.compile("\"peakRssBytes\": (-?\\d+)");
+
+    private static final Pattern PEAK_HEAP = Pattern.compile("\"peakHeapBytes\": (-?\\d+)");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ScaleBenchmark <inputDir> <workDir> [--jvm-options=-Xmx4g] [--name=value]*");
+            System.exit(64);
+        }
+        File inputDirectory = new File(args[0]);
+        File workDirectory = new File(args[1]).getAbsoluteFile();
+        List<String> jvmOptions = new ArrayList<>();
+        List<String> options = new ArrayList<>();
+        for (String arg : Arrays.copyOfRange(args, 2, args.length)) {
+            if (arg.startsWith("--jvm-options=")) {
+                jvmOptions.addAll(Arrays.asList(arg.substring("--jvm-options=".length()).trim().split("\\s+")));
+            } else {
+                options.add(arg);
+            }
+        }
+
+        List<String> repositories = findRepositories(inputDirectory);
+        if (!workDirectory.isDirectory() && !workDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + workDirectory);
+        }
+        File merged = new File(workDirectory, "merged");
+
+        List<Result> results = new ArrayList<>();
+        for (String command : COMMANDS) {
+            List<String> commandLine = new ArrayList<>();
+            commandLine.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            commandLine.addAll(jvmOptions);
+            commandLine.add("-cp");
+            commandLine.add(absoluteClassPath());
+            commandLine.add(Main.class.getName());
+            commandLine.add(command);
+            commandLine.add(merged.getPath());
+            commandLine.addAll(repositories);
+            commandLine.addAll(options);
+            results.add(run(command, commandLine, workDirectory, merged));
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %12s %8s",
+                "command", "wall ms", "rss MB", "heap MB", "refs", "objects", "packs"));
+        for (Result result : results) {
+            System.out.println(String.format(Locale.ROOT, "%-8s %10d %10d %10d %10d %12d %8d",
+                    result.command, result.wallMillis, megabytes(result.peakRssBytes),
+                    megabytes(result.peakHeapBytes), result.refs, result.statistics.numberOfPackedObjects
+                            + result.statistics.numberOfLooseObjects, result.statistics.numberOfPackFiles));
+        }
+        File report = new File(workDirectory, "scale-report.json");
+        writeReport(report, inputDirectory, options, results);
+        System.out.println("Report: " + report);
+    }
+
+    /**
+     * @return <code>&lt;repository&gt;:.</code> of each repository in the
+     *         directory, in name order
+     */
+    private static List<String> findRepositories(File directory) throws IOException {
+        File[] files = directory.listFiles(file -> file.isDirectory() && file.getName().endsWith(".git"));
+        if (files == null || files.length < 3) {
+            // Main expects at least three repositories
+            throw new IOException("Expected at least 3 repositories named *.git in " + directory);
+        }
+        Arrays.sort(files);
+        List<String> repositories = new ArrayList<>();
+        for (File file : files) {
+            repositories.add(file.getAbsolutePath() + ":.");
+        }
+        return repositories;
+    }
+
+    /**
+     * @return class path of this JVM, with relative entries made absolute as
+     *         the commands run in the work directory
+     */
+    private static String absoluteClassPath() {
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static Result run(String command, List<String> commandLine, File workDirectory, File merged)
+            throws IOException, InterruptedException {
+        File output = new File(workDirectory, command + ".out");
+        System.out.println("Running " + command + ", output in " + output);
+        long start = System.currentTimeMillis();
+        Process process = new ProcessBuilder(commandLine)
+                .directory(workDirectory)
+                .redirectErrorStream(true)
+                .redirectOutput(output)
+                .start();
+        int exitCode = process.waitFor();
+        long wallMillis = System.currentTimeMillis() - start;
+        if (exitCode != 0) {
+            throw new IOException(command + " failed with exit code " + exitCode + ", see " + output);
+        }
+
+        File metricsFile = new File(workDirectory, command + "-metrics.json");
+        String metrics = new String(Files.readAllBytes(metricsFile.toPath()), StandardCharsets.UTF_8).trim();
+        Result result = new Result(command, wallMillis, metrics);
+        try (FileRepository repository = new FileRepository(new File(merged, ".git"))) {
+            result.refs = repository.getRefDatabase().getRefs(RefDatabase.ALL).size();
+            result.statistics = new GC(repository).getStatistics();
+        }
+        return result;
+    }
+
+    private static void writeReport(File file, File inputDirectory, List<String> options, List<Result> results)
+            throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"input\": " + Metrics.quote(inputDirectory.getAbsolutePath()) + ",\n");
+            writer.write("  \"options\": " + Metrics.quote(String.join(" ", options)) + ",\n");
+            writer.write("  \"commands\": [");
+            String separator = "\n";
+            for (Result result : results) {
+                writer.write(separator + "    {\n");
+                writer.write("      \"command\": " + Metrics.quote(result.command) + ",\n");
+                writer.write("      \"wallMs\": " + result.wallMillis + ",\n");
+                writer.write("      \"peakRssBytes\": " + result.peakRssBytes + ",\n");
+                writer.write("      \"refs\": " + result.refs + ",\n");
+                writer.write("      \"packedObjects\": " + result.statistics.numberOfPackedObjects + ",\n");
+                writer.write("      \"looseObjects\": " + result.statistics.numberOfLooseObjects + ",\n");
+                writer.write("      \"packFiles\": " + result.statistics.numberOfPackFiles + ",\n");
+                writer.write("      \"packedBytes\": " + result.statistics.sizeOfPackedObjects + ",\n");
+                writer.write("      \"metrics\": " + result.metrics.replace("\n", "\n      ") + "\n");
+                writer.write("    }");
+                separator = ",\n";
+            }
+            writer.write("\n  ]\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static long megabytes(long bytes) {
+        return bytes < 0 ? -1 : bytes / (1024 * 1024);
+    }
+
+    private static long find(Pattern pattern, String metrics) {
+        Matcher matcher = pattern.matcher(metrics);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private static class Result {
+
+        private final String command;
+
+        private final long wallMillis;
+
+        // Metrics report of the command, as written
+        private final String metrics;
+
+        private final long peakRssBytes;
+
+        private final long peakHeapBytes;
+
+        private int refs;
+
+        private GC.RepoStatistics statistics;
+
+        Result(String command, long wallMillis, String metrics) {
+            this.command = command;
+            this.wallMillis = wallMillis;
+            this.metrics = metrics;
+            this.peakRssBytes = find(PEAK_RSS, metrics);
+            this.peakHeapBytes = find(PEAK_HEAP, metrics);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.nibor.git_merge_repos.merger.MergeSession;
+import org.nibor.git_merge_repos.merger.MergeState;
+import org.nibor.git_merge_repos.merger.RefIndex;
+import org.nibor.git_merge_repos.merger.SubtreeMerger;
+import org.nibor.git_merge_repos.merger.TreeCache;
+import org.nibor.git_merge_repos.vo.MergeOptions;
+import org.nibor.git_merge_repos.vo.MergeOptions.TreeMode;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge commit of three input commits, with the merged tree built from
+ * scratch every time (no tree cache hits, nothing to patch from).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubtreeMergerBenchmark {
+
+    /**
+     * Directories and files per directory of each input tree.
+     */
+    @Param({"10x10", "200x50"})
+    public String treeSize;
+
+    /**
+     * Whether the inputs are merged into the root or into a subdirectory
+     * each.
+     */
+    @Param({"root", "subdirectory"})
+    public String layout;
+
+    @Param({"SHALLOW", "RECURSIVE", "STREAMING"})
+    public TreeMode treeMode;
+
+    private InMemoryRepository repository;
+
+    private MergeSession session;
+
+    private Map<SubtreeConfig, RevCommit> parentCommits;
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] size = treeSize.split("x");
+        int directories = Integer.parseInt(size[0]);
+        int files = Integer.parseInt(size[1]);
+        List<SubtreeConfig> configs = Fixtures.subtreeConfigs(3, "subdirectory".equals(layout));
+
+        repository = Fixtures.newRepository("merged");
+        parentCommits = new LinkedHashMap<>();
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            Map<SubtreeConfig, ObjectId> commitIds = new LinkedHashMap<>();
+            for (int i = 0; i < configs.size(); i++) {
+                SubtreeConfig config = configs.get(i);
+                ObjectId treeId = Fixtures.writeTree(inserter, config.getRemoteName(), directories, files);
+                commitIds.put(config, Fixtures.writeCommit(inserter, treeId, 1500000000000L + i * 1000));
+            }
+            inserter.flush();
+            try (RevWalk revWalk = new RevWalk(repository)) {
+                for (Map.Entry<SubtreeConfig, ObjectId> entry : commitIds.entrySet()) {
+                    parentCommits.put(entry.getKey(), revWalk.parseCommit(entry.getValue()));
+                }
+            }
+        }
+
+        MergeOptions options = new MergeOptions();
+        options.add("--tree-threads=1");
+        session = new MergeSession(repository, RefIndex.build(repository, configs), new MergeState(), options);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+        repository.close();
+    }
+
+    @Benchmark
+    public ObjectId createMergeCommit() throws IOException {
+        SubtreeMerger subtreeMerger = new SubtreeMerger(session, treeMode, new TreeCache(1));
+        return subtreeMerger.createMergeCommit(parentCommits, "Merge tag 'benchmark'");
+    }
+}
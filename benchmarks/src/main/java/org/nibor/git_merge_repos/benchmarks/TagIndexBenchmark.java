@@ -0,0 +1,69 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.nibor.git_merge_repos.merger.TagIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grouping tags under their branches, which is what
+ * <code>RepoMerger.groupTagsUnderBranch</code> does, including ordering the
+ * tags of each branch by their number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TagIndexBenchmark {
+
+    @Param({"20", "200"})
+    public int branches;
+
+    @Param({"10", "100"})
+    public int tagsPerBranch;
+
+    private Collection<String> branchNames;
+
+    private Collection<String> tags;
+
+    private TagIndex tagIndex;
+
+    @Setup
+    public void setUp() {
+        List<String> names = new ArrayList<>();
+        for (int b = 0; b < branches; b++) {
+            names.add(Fixtures.branchName(b));
+        }
+        names.add("master");
+        branchNames = new TreeSet<>(names);
+        // Sorted by name like the ref index returns them, so 9.1-10 comes before 9.1-2
+        tags = new TreeSet<>(Fixtures.tagNames(branches, tagsPerBranch));
+        tagIndex = TagIndex.build(branchNames, tags);
+    }
+
+    @Benchmark
+    public TagIndex build() {
+        return TagIndex.build(branchNames, tags);
+    }
+
+    @Benchmark
+    public List<String> getUngroupedTags() {
+        return tagIndex.getUngroupedTags(tags);
+    }
+}
@@ -0,0 +1,59 @@
+package org.nibor.git_merge_repos.benchmarks;
+
+import org.nibor.git_merge_repos.log.LoggerUtil;
+import org.nibor.git_merge_repos.vo.TagInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Choosing the parent tag of a tag among the candidates found in each input
+ * repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TagInfoBenchmark {
+
+    /**
+     * Number of candidates, i.e. of input repositories.
+     */
+    @Param({"3", "9", "30"})
+    public int candidates;
+
+    private List<TagInfo> tagInfos;
+
+    @Setup
+    public void setUp() {
+        // Measure choosing the tag, not writing prepare.log
+        LoggerUtil.PREPARE_LOG.setLevel(Level.OFF);
+        tagInfos = new ArrayList<>();
+        for (int i = 0; i < candidates; i++) {
+            // One candidate is the tag itself, which is never chosen
+            String name = i == 0 ? "9.3-1" : "9.2-" + (i % 5);
+            tagInfos.add(new TagInfo(name, new Date(1500000000000L + (i * 7919L % candidates) * 1000), "repo" + i));
+        }
+    }
+
+    @Benchmark
+    public String findLatestTag() {
+        return TagInfo.findLatestTag("9.3-1", tagInfos);
+    }
+}
@@ -1,24 +1,35 @@
 package org.nibor.git_merge_repos;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.transport.URIish;
+import org.nibor.git_merge_repos.log.Metrics;
+import org.nibor.git_merge_repos.merger.MergePlan;
+import org.nibor.git_merge_repos.merger.MergePlanner;
+import org.nibor.git_merge_repos.merger.OverlapAnalyzer;
 import org.nibor.git_merge_repos.merger.ParentTagCollector;
 import org.nibor.git_merge_repos.merger.RepoMerger;
+import org.nibor.git_merge_repos.vo.MergeOptions;
 import org.nibor.git_merge_repos.vo.MergedRef;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+import static org.nibor.git_merge_repos.log.LoggerUtil.PLAN_LOG;
 import static org.nibor.git_merge_repos.log.LoggerUtil.PREPARE_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
 
 /**
  * Main class for merging repositories via command-line.
@@ -28,37 +39,101 @@ public class Main {
     private static Pattern REPO_AND_DIR = Pattern.compile("(.*):([^:]+)");
 
     public static void main(String[] args) throws IOException, GitAPIException, URISyntaxException, IllegalAccessException {
+        MergeOptions options = new MergeOptions();
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (MergeOptions.isOption(arg)) {
+                options.add(arg);
+            } else {
+                arguments.add(arg);
+            }
+        }
+        args = arguments.toArray(new String[arguments.size()]);
         validate(args);
+        try {
+            options.validate();
+        } catch (IllegalArgumentException e) {
+            exitInvalidUsage(e.getMessage());
+        }
 
         String option = args[0];
         String outputPath = args[1];
         List<SubtreeConfig> subtreeConfigs = getSubtreeConfigs(Arrays.copyOfRange(args, 2, args.length));
+        installWindowCache(options);
 
         if (option.equalsIgnoreCase("prepare")) {
-            prepare(subtreeConfigs, outputPath);
+            prepare(subtreeConfigs, outputPath, options);
+        } else if (option.equalsIgnoreCase("check")) {
+            check(subtreeConfigs, outputPath, options);
+        } else if (option.equalsIgnoreCase("plan")) {
+            plan(subtreeConfigs, outputPath, options);
         } else if (option.equalsIgnoreCase("merge")) {
-            merge(subtreeConfigs, outputPath);
+            merge(subtreeConfigs, outputPath, options);
         } else {
-            throw new IllegalAccessException("Invalid option given: " + option + ". Expected prepare|merge");
+            throw new IllegalAccessException("Invalid option given: " + option + ". Expected prepare|check|plan|merge");
         }
     }
 
     private static void validate(String[] args) {
         if (args.length < 5) {
             logExample();
-            exitInvalidUsage("mandatory arguments missing: " + Arrays.toString(args) + ". Expected format '<option [prepare|merge]> <outputDir> <repository_url>:<target_directory>*'");
+            exitInvalidUsage("mandatory arguments missing: " + Arrays.toString(args) + ". Expected format '<option [prepare|check|plan|merge]> <outputDir> <repository_url>:<target_directory>* [--name=value]*'");
         }
     }
 
-    private static void prepare(List<SubtreeConfig> subtreeConfigs, String outputPath) throws IOException, GitAPIException {
+    /**
+     * Configures the window cache all readers of the JVM share, once per run,
+     * as installing a configuration drops the cached pack data.
+     */
+    private static void installWindowCache(MergeOptions options) {
+        WindowCacheConfig windowCacheConfig = new WindowCacheConfig();
+        windowCacheConfig.setPackedGitLimit(options.getWindowCacheBytes());
+        windowCacheConfig.install();
+    }
+
+    private static void prepare(List<SubtreeConfig> subtreeConfigs, String outputPath, MergeOptions options) throws IOException, GitAPIException {
         PREPARE_LOG.log(Level.INFO, "Started fetching and gathering parent tag information..");
         long start = System.currentTimeMillis();
-        ParentTagCollector parentTagFinder = new ParentTagCollector(outputPath, subtreeConfigs);
+        ParentTagCollector parentTagFinder = new ParentTagCollector(outputPath, subtreeConfigs, options);
         parentTagFinder.collect();
 
         long end = System.currentTimeMillis();
         long timeMs = (end - start);
-        PREPARE_LOG.log(Level.INFO, "Done, fetching and gathering parent tag information took " + (timeMs / 1000) / 60 + " mins");
+        PREPARE_LOG.log(Level.INFO, "Done, fetching and gathering parent tag information took "
+                + Metrics.formatDuration(timeMs));
+        writeMetrics(PREPARE_LOG, "prepare", timeMs);
+    }
+
+    private static void check(List<SubtreeConfig> subtreeConfigs, String outputPath, MergeOptions options) throws IOException {
+        PLAN_LOG.log(Level.INFO, "Started checking for overlapping inputs..");
+        long start = System.currentTimeMillis();
+        MergePlanner planner = new MergePlanner(outputPath, subtreeConfigs, options);
+        Map<String, List<String>> overlaps = planner.checkOverlaps();
+        File reportFile = options.getOverlapReportFile();
+        OverlapAnalyzer.writeReport(reportFile, overlaps);
+
+        long timeMs = System.currentTimeMillis() - start;
+        PLAN_LOG.log(overlaps.isEmpty() ? Level.INFO : Level.SEVERE, "Done, checking took "
+                + Metrics.formatDuration(timeMs) + ", " + overlaps.size() + " refs with overlapping inputs, report: "
+                + reportFile.getAbsolutePath());
+        writeMetrics(PLAN_LOG, "check", timeMs);
+        if (!overlaps.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void plan(List<SubtreeConfig> subtreeConfigs, String outputPath, MergeOptions options) throws IOException {
+        PLAN_LOG.log(Level.INFO, "Started planning the merge..");
+        long start = System.currentTimeMillis();
+        MergePlanner planner = new MergePlanner(outputPath, subtreeConfigs, options);
+        MergePlan plan = planner.plan();
+        File planFile = options.getPlanFile() != null ? options.getPlanFile() : new File("merge.plan");
+        plan.save(planFile);
+
+        long timeMs = System.currentTimeMillis() - start;
+        PLAN_LOG.log(Level.INFO, "Done, planning took " + Metrics.formatDuration(timeMs) + ", plan: "
+                + planFile.getAbsolutePath());
+        writeMetrics(PLAN_LOG, "plan", timeMs);
     }
 
     private static List<SubtreeConfig> getSubtreeConfigs(String[] args) throws URISyntaxException {
@@ -81,19 +156,33 @@ public class Main {
         return subtreeConfigs;
     }
 
-    private static void merge(List<SubtreeConfig> subtreeConfigs, String outputPath) throws IOException, GitAPIException {
+    private static void merge(List<SubtreeConfig> subtreeConfigs, String outputPath, MergeOptions options) throws IOException, GitAPIException {
         long start = System.currentTimeMillis();
-        RepoMerger merger = new RepoMerger(outputPath, subtreeConfigs);
+        RepoMerger merger = new RepoMerger(outputPath, subtreeConfigs, options);
         merger.run();
 
         long end = System.currentTimeMillis();
         long timeMs = (end - start);
         postMerge(outputPath, merger, timeMs);
+        writeMetrics(MERGE_LOG, "merge", timeMs);
+    }
+
+    /**
+     * Writes the metrics report next to the log of the command.
+     */
+    private static void writeMetrics(Logger logger, String command, long timeMs) {
+        File file = new File(command + "-metrics.json");
+        try {
+            METRICS.writeReport(file, command, timeMs);
+            logger.log(Level.INFO, "Metrics report: " + file.getAbsolutePath());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to write metrics report " + file + " due to " + e.getMessage());
+        }
     }
 
     private static void postMerge(String outputPath, RepoMerger merger, long timeMs) {
         printIncompleteRefs(merger.getMergedRefs());
-        log(Level.INFO, "Done, took " + (timeMs / 1000) / 60 + " mins");
+        log(Level.INFO, "Done, took " + Metrics.formatDuration(timeMs));
         log(Level.INFO, "Merged repository: " + outputPath);
     }
 
@@ -128,6 +217,34 @@ public class Main {
                 "/udir/sankarge/git/merge/input/bare/dsl:. /udir/sankarge/git/merge/input/bare/drdsl-webapp:. " +
                 "/udir/sankarge/git/merge/input/bare/platform:. /udir/sankarge/git/merge/input/bare/optical:. " +
                 "/udir/sankarge/git/merge/input/bare/ipm:. /udir/sankarge/git/merge/input/bare/na-birt:.");
+        log(Level.SEVERE, "Options:");
+        log(Level.SEVERE, "--fetch-threads=<n> number of repositories fetched concurrently (default 4)");
+        log(Level.SEVERE, "--fetch-threads-per-host=<n> concurrent fetches against the same host (default --fetch-threads)");
+        log(Level.SEVERE, "--mirror-cache=<dir> keep mirrors of the inputs in dir, only fetch what changed upstream into them and read the inputs from there");
+        log(Level.SEVERE, "--input-mode=<fetch|link> fetch the inputs, or link local ones through objects/info/alternates and only copy their refs (default fetch)");
+        log(Level.SEVERE, "--consolidate after merging, pack the objects of linked inputs into the output repository and remove the link");
+        log(Level.SEVERE, "--bare write a bare output repository, the output directory is its git directory (pass to prepare too)");
+        log(Level.SEVERE, "--checkout=<now|defer|skip> after merging, check out master, only reset the index to it, or leave both (default now)");
+        log(Level.SEVERE, "--repack after merging, write one pack with bitmaps of everything reachable and remove the old packs");
+        log(Level.SEVERE, "--overlap-report=<file> check: file the overlapping paths and the refs they affect are written to (default overlap-report.txt)");
+        log(Level.SEVERE, "--check-threads=<n> tags and branches checked for overlapping inputs concurrently by check and plan (default number of cores)");
+        log(Level.SEVERE, "--plan=<file> plan: file the merge plan is written to (default merge.plan), merge: merge the refs of that plan, which must not have problems");
+        log(Level.SEVERE, "--prepare-threads=<n> repositories searched for parent tags concurrently (default number of cores)");
+        log(Level.SEVERE, "--merge-threads=<n> tag chains merged concurrently (default number of cores)");
+        log(Level.SEVERE, "--loose-objects write merge objects as loose objects instead of pack files");
+        log(Level.SEVERE, "--pack-flush-objects=<n> objects per written pack file (default 50000)");
+        log(Level.SEVERE, "--pack-flush-mb=<n> megabytes per written pack file (default 256)");
+        log(Level.SEVERE, "--tree-mode=<shallow|recursive|streaming> reuse non-overlapping subtrees, rewrite every tree or rewrite every tree file by file (default shallow)");
+        log(Level.SEVERE, "--tree-threads=<n> top-level directories of a merged tree composed concurrently (default number of cores)");
+        log(Level.SEVERE, "--tree-cache-size=<n> merged trees remembered for reuse (default 10000)");
+        log(Level.SEVERE, "--tree-cache-file=<file> keep merged trees remembered between runs");
+        log(Level.SEVERE, "--incremental only merge tags and branches that are new or moved since the last run");
+        log(Level.SEVERE, "--state-file=<file> original refs of the merged refs, compared by --incremental (default merge-state in the git directory of the output, <outputDir>/.git or <outputDir> with --bare)");
+        log(Level.SEVERE, "--resume take over the refs merged by an interrupted run from its journal");
+        log(Level.SEVERE, "--checkpoint-mins=<n> minutes after which merged refs are flushed and journaled (default 5)");
+        log(Level.SEVERE, "--progress-secs=<n> log merged tags per second and the remaining time every n seconds (default 0, no progress)");
+        log(Level.SEVERE, "--parsed-object-cache=<n> parsed commits and tags kept in memory (default 100000)");
+        log(Level.SEVERE, "--window-cache-mb=<n> megabytes of pack data cached in memory (default 256)");
     }
 
     private static void log(Level level, String message) {
@@ -1,5 +1,6 @@
 package org.nibor.git_merge_repos.log;
 
+import org.nibor.git_merge_repos.merger.MergePlanner;
 import org.nibor.git_merge_repos.merger.ParentTagCollector;
 import org.nibor.git_merge_repos.merger.RepoMerger;
 
@@ -17,6 +18,8 @@ public class LoggerUtil {
 
     public static final Logger MERGE_LOG = Logger.getLogger(RepoMerger.class.getName());
 
+    public static final Logger PLAN_LOG = Logger.getLogger(MergePlanner.class.getName());
+
     static {
         try {
             configLogger();
@@ -37,5 +40,11 @@ public class LoggerUtil {
         prepareFileHandler.setFormatter(new CustomLogFormatter());
         PREPARE_LOG.addHandler(prepareFileHandler);
         PREPARE_LOG.setUseParentHandlers(false);
+
+        FileHandler planFileHandler = new FileHandler("plan.log", true);
+        planFileHandler.setLevel(Level.ALL);
+        planFileHandler.setFormatter(new CustomLogFormatter());
+        PLAN_LOG.addHandler(planFileHandler);
+        PLAN_LOG.setUseParentHandlers(false);
     }
 }
\ No newline at end of file
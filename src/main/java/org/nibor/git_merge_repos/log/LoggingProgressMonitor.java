@@ -0,0 +1,42 @@
+package org.nibor.git_merge_repos.log;
+
+import org.eclipse.jgit.lib.BatchingProgressMonitor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes JGit progress (e.g. of a fetch) to a log file, prefixed with the name
+ * of the repository it belongs to, so that progress of concurrent tasks can be
+ * told apart.
+ */
+public class LoggingProgressMonitor extends BatchingProgressMonitor {
+
+    private final Logger logger;
+
+    private final String prefix;
+
+    public LoggingProgressMonitor(Logger logger, String prefix) {
+        this.logger = logger;
+        this.prefix = prefix;
+    }
+
+    @Override
+    protected void onUpdate(String taskName, int workCurr) {
+    }
+
+    @Override
+    protected void onEndTask(String taskName, int workCurr) {
+        logger.log(Level.INFO, prefix + ": " + taskName + " " + workCurr);
+    }
+
+    @Override
+    protected void onUpdate(String taskName, int workCurr, int workTotal, int percentDone) {
+        onEndTask(taskName, workCurr, workTotal, percentDone);
+    }
+
+    @Override
+    protected void onEndTask(String taskName, int workCurr, int workTotal, int percentDone) {
+        logger.log(Level.INFO, prefix + ": " + taskName + " " + percentDone + "% (" + workCurr + "/" + workTotal + ")");
+    }
+}
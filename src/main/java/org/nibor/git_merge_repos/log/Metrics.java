@@ -0,0 +1,301 @@
+package org.nibor.git_merge_repos.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timings, counters and latency histograms of one prepare or merge run, which
+ * are written to a JSON report at the end so that runs can be compared.
+ * <p>
+ * Phases are timed in milliseconds; phases that run concurrently (e.g. the
+ * fetch of each repository) are reported separately. Histograms keep
+ * latencies in microseconds in power-of-two buckets, so their percentiles are
+ * accurate to a factor of two.
+ */
+public class Metrics {
+
+    public static final Metrics METRICS = new Metrics();
+
+    private final Map<String, Long> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService progress;
+
+    private Metrics() {
+    }
+
+    /**
+     * Times the body as a phase; time of phases with the same name adds up.
+     *
+     * @return what the body returned
+     */
+    public <T, E extends Exception> T time(String phase, Phase<T, E> body) throws E {
+        long start = System.currentTimeMillis();
+        try {
+            return body.run();
+        } finally {
+            addTime(phase, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Times the body as a phase; time of phases with the same name adds up.
+     */
+    public <E extends Exception> void time(String phase, VoidPhase<E> body) throws E {
+        time(phase, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    public void addTime(String phase, long millis) {
+        phases.merge(phase, millis, Long::sum);
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long value) {
+        counters.computeIfAbsent(counter, c -> new LongAdder()).add(value);
+    }
+
+    public long get(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Records a latency in the histogram, measured from
+     * <code>startNanos</code> as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(String histogram, long startNanos) {
+        histograms.computeIfAbsent(histogram, h -> new Histogram())
+                .record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Logs how far the counter got towards the total every given number of
+     * seconds, until {@link #stopProgress()}.
+     */
+    public synchronized void startProgress(Logger logger, String counter, String unit, long total, int seconds) {
+        stopProgress();
+        long start = System.currentTimeMillis();
+        long initial = get(counter);
+        progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(() -> {
+            long done = get(counter) - initial;
+            long elapsed = System.currentTimeMillis() - start;
+            double rate = elapsed == 0 ? 0 : done * 1000.0 / elapsed;
+            String eta = done == 0 ? "unknown" : formatDuration((long) ((total - done) / rate * 1000));
+            logger.log(Level.INFO, String.format(Locale.ROOT, "Progress: %d/%d %s, %.1f %s/s, ETA %s, heap %d MB",
+                    done, total, unit, rate, unit, eta, usedHeap() / (1024 * 1024)));
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopProgress() {
+        if (progress != null) {
+            progress.shutdownNow();
+            progress = null;
+        }
+    }
+
+    public void writeReport(File file, String command, long durationMillis) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"command\": " + quote(command) + ",\n");
+            writer.write("  \"finished\": " + System.currentTimeMillis() + ",\n");
+            writer.write("  \"durationMs\": " + durationMillis + ",\n");
+            writer.write("  \"peakHeapBytes\": " + peakHeap() + ",\n");
+            writer.write("  \"peakRssBytes\": " + peakRss() + ",\n");
+            writer.write("  \"phasesMs\": {");
+            List<Map.Entry<String, Long>> phaseEntries;
+            synchronized (phases) {
+                phaseEntries = new ArrayList<>(phases.entrySet());
+            }
+            writeEntries(writer, phaseEntries);
+            writer.write("},\n");
+            writer.write("  \"counters\": {");
+            Map<String, Long> counterValues = new TreeMap<>();
+            counters.forEach((name, adder) -> counterValues.put(name, adder.sum()));
+            writeEntries(writer, new ArrayList<>(counterValues.entrySet()));
+            writer.write("},\n");
+            writer.write("  \"histogramsUs\": {");
+            String separator = "\n";
+            for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+                writer.write(separator + "    " + quote(entry.getKey()) + ": " + entry.getValue().toJson());
+                separator = ",\n";
+            }
+            writer.write(histograms.isEmpty() ? "}\n" : "\n  }\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static void writeEntries(Writer writer, List<Map.Entry<String, Long>> entries) throws IOException {
+        String separator = "\n";
+        for (Map.Entry<String, Long> entry : entries) {
+            writer.write(separator + "    " + quote(entry.getKey()) + ": " + entry.getValue());
+            separator = ",\n";
+        }
+        if (!entries.isEmpty()) {
+            writer.write("\n  ");
+        }
+    }
+
+    /**
+     * @return the value as a JSON string
+     */
+    public static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * @return sum of the peak usage of all heap memory pools
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return peak resident set size of the process (<code>VmHWM</code>), -1
+     *         if not known because <code>/proc</code> is not available
+     */
+    private static long peakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.canRead()) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux after all
+        }
+        return -1;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return e.g. <code>850 ms</code>, <code>42.3 s</code> or
+     *         <code>1 h 2 min 3 s</code>
+     */
+    public static String formatDuration(long millis) {
+        if (millis < 1000) {
+            return millis + " ms";
+        }
+        if (millis < 60 * 1000) {
+            return String.format(Locale.ROOT, "%.1f s", millis / 1000.0);
+        }
+        long seconds = millis / 1000;
+        long hours = seconds / 3600;
+        long minutes = seconds / 60 % 60;
+        return (hours > 0 ? hours + " h " : "") + minutes + " min " + seconds % 60 + " s";
+    }
+
+    public interface Phase<T, E extends Exception> {
+
+        T run() throws E;
+    }
+
+    public interface VoidPhase<E extends Exception> {
+
+        void run() throws E;
+    }
+
+    private static class Histogram {
+
+        // Bucket i counts values v with 2^(i-1) <= v < 2^i, bucket 0 counts 0
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sum = new LongAdder();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(value, 0)));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        /**
+         * @return upper bound of the bucket the percentile falls into
+         */
+        long percentile(long total, double percentile) {
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        String toJson() {
+            long total = count.sum();
+            long totalSum = sum.sum();
+            return "{\"count\": " + total + ", \"sum\": " + totalSum
+                    + ", \"mean\": " + (total == 0 ? 0 : totalSum / total)
+                    + ", \"p50\": " + percentile(total, 0.5)
+                    + ", \"p90\": " + percentile(total, 0.9)
+                    + ", \"p99\": " + percentile(total, 0.99)
+                    + ", \"max\": " + max.get() + "}";
+        }
+    }
+}
@@ -1,16 +1,10 @@
 package org.nibor.git_merge_repos.merger;
 
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevObject;
-import org.eclipse.jgit.revwalk.RevTag;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.nibor.git_merge_repos.log.LoggerUtil;
 import org.nibor.git_merge_repos.vo.MergedRef;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 
-import java.io.IOException;
 import java.util.*;
 import java.util.logging.Level;
 
@@ -18,46 +12,31 @@ public class AbstractMerger {
 
     protected final List<SubtreeConfig> subtreeConfigs;
 
-    protected final Repository repository;
+    protected final MergeSession session;
 
-    public AbstractMerger(List<SubtreeConfig> subtreeConfigs, Repository repository) {
+    protected final SubtreeMerger subtreeMerger;
+
+    public AbstractMerger(List<SubtreeConfig> subtreeConfigs, MergeSession session, SubtreeMerger subtreeMerger) {
         this.subtreeConfigs = subtreeConfigs;
-        this.repository = repository;
+        this.session = session;
+        this.subtreeMerger = subtreeMerger;
     }
 
-    protected Map<SubtreeConfig, ObjectId> resolveRefs(String refPrefix,
-                                                       String name) throws IOException {
-        Map<SubtreeConfig, ObjectId> result = new LinkedHashMap<>();
-        for (SubtreeConfig config : subtreeConfigs) {
-            String repositoryName = config.getRemoteName();
-            String remoteBranch = refPrefix + repositoryName + "/" + name;
-            ObjectId objectId = repository.resolve(remoteBranch);
-            if (objectId != null) {
-                result.put(config, objectId);
-            }
-        }
-        return result;
+    protected Map<SubtreeConfig, ObjectId> resolveRefs(String refPrefix, String name) {
+        return session.getRefIndex().resolve(refPrefix, name);
     }
 
-    protected RevCommit getCommitOfTag(String tagName) {
-        try {
-            ObjectId objectId = repository.resolve("refs/tags/" + tagName);
-            RevWalk revWalk = new RevWalk(repository);
-            RevObject revObject = revWalk.parseAny(objectId);
-            RevCommit revCommit = null;
-
-            if (revObject instanceof RevCommit) {
-                revCommit = (RevCommit) revObject;
-            } else if (revObject instanceof RevTag) {
-                RevTag tag = (RevTag) revObject;
-                revCommit = (RevCommit) revWalk.peel(tag);
-            }
-            return revCommit;
-        } catch (Exception e) {
-            LoggerUtil.PREPARE_LOG.log(Level.SEVERE, "Unable to getCommitOfTag " + tagName + " due to " + e.getMessage());
-            LoggerUtil.MERGE_LOG.log(Level.SEVERE, "Unable to getCommitOfTag " + tagName + " due to " + e.getMessage());
+    /**
+     * @return the commit of a tag merged before, or <code>null</code> if there
+     *         is no such tag
+     */
+    protected ObjectId getCommitOfTag(String tagName) {
+        ObjectId commitId = session.getRefIndex().getMergedTagCommit(tagName);
+        if (commitId == null) {
+            LoggerUtil.PREPARE_LOG.log(Level.SEVERE, "Unable to getCommitOfTag " + tagName + " due to missing tag");
+            LoggerUtil.MERGE_LOG.log(Level.SEVERE, "Unable to getCommitOfTag " + tagName + " due to missing tag");
         }
-        return null;
+        return commitId;
     }
 
     protected MergedRef getMergedRef(String refType, String refName,
@@ -0,0 +1,112 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+
+import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Inserter shared by all mergers of one merge run. For a file repository new
+ * trees, commits and tags are streamed into a pack file instead of being
+ * written as loose objects; the pack is completed and a new one started
+ * whenever the configured number of objects or bytes has been written.
+ * <p>
+ * Objects that are not flushed yet can only be read through
+ * {@link #newReader()}, not through a reader of the repository.
+ */
+public class BatchObjectInserter extends ObjectInserter.Filter {
+
+    private final ObjectInserter delegate;
+
+    private final long maxObjects;
+
+    private final long maxBytes;
+
+    private long pendingObjects;
+
+    private long pendingBytes;
+
+    private long totalObjects;
+
+    private long totalBytes;
+
+    private int flushes;
+
+    public BatchObjectInserter(Repository repository, boolean packed, long maxObjects, long maxBytes) {
+        ObjectDatabase objectDatabase = repository.getObjectDatabase();
+        if (packed && objectDatabase instanceof ObjectDirectory) {
+            delegate = ((ObjectDirectory) objectDatabase).newPackInserter();
+        } else {
+            delegate = objectDatabase.newInserter();
+        }
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    protected ObjectInserter delegate() {
+        return delegate;
+    }
+
+    @Override
+    public ObjectId insert(int type, byte[] data) throws IOException {
+        return insert(type, data, 0, data.length);
+    }
+
+    @Override
+    public ObjectId insert(int type, byte[] data, int off, int len) throws IOException {
+        ObjectId id = delegate.insert(type, data, off, len);
+        inserted(len);
+        return id;
+    }
+
+    @Override
+    public ObjectId insert(int type, long len, InputStream in) throws IOException {
+        ObjectId id = delegate.insert(type, len, in);
+        inserted(len);
+        return id;
+    }
+
+    private void inserted(long len) throws IOException {
+        pendingObjects++;
+        pendingBytes += len;
+        if (pendingObjects >= maxObjects || pendingBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pendingObjects == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        delegate.flush();
+        METRICS.recordSince("objects.flush", start);
+        METRICS.add("objects.written", pendingObjects);
+        METRICS.add("bytes.written", pendingBytes);
+        totalObjects += pendingObjects;
+        totalBytes += pendingBytes;
+        flushes++;
+        MERGE_LOG.log(Level.INFO, "Flushed " + pendingObjects + " objects (" + pendingBytes + " bytes), "
+                + totalObjects + " objects in " + flushes + " flushes so far");
+        pendingObjects = 0;
+        pendingBytes = 0;
+    }
+
+    public long getTotalObjects() {
+        return totalObjects + pendingObjects;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes + pendingBytes;
+    }
+}
@@ -1,63 +1,59 @@
 package org.nibor.git_merge_repos.merger;
 
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.RefUpdate;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.nibor.git_merge_repos.vo.MergedRef;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
 /**
  * Created by sankarge on 12/21/17.
  */
 public class BranchMerger extends AbstractMerger {
 
-    public static final List<MergedRef> mergedRefs = new ArrayList<>();
-
-    public BranchMerger(List<SubtreeConfig> subtreeConfigs, Repository repository) {
-        super(subtreeConfigs, repository);
+    public BranchMerger(List<SubtreeConfig> subtreeConfigs, MergeSession session, SubtreeMerger subtreeMerger) {
+        super(subtreeConfigs, session, subtreeMerger);
     }
 
     public void mergeBranch(String branch, String previousTag) throws IOException {
+        long start = System.nanoTime();
         Map<SubtreeConfig, ObjectId> resolvedRefs = resolveRefs(
-                "refs/heads/original/", branch);
+                RepoMerger.HEADS, branch);
 
         Map<SubtreeConfig, RevCommit> parentCommits = new LinkedHashMap<>();
-        try (RevWalk revWalk = new RevWalk(repository)) {
-            for (SubtreeConfig config : subtreeConfigs) {
-                ObjectId objectId = resolvedRefs.get(config);
-                if (objectId != null) {
-                    RevCommit commit = revWalk.parseCommit(objectId);
-                    parentCommits.put(config, commit);
-                }
+        for (SubtreeConfig config : subtreeConfigs) {
+            ObjectId objectId = resolvedRefs.get(config);
+            if (objectId != null) {
+                RevCommit commit = session.parseCommit(objectId);
+                parentCommits.put(config, commit);
             }
         }
 
         MergedRef mergedRef = getMergedRef("branch", branch, parentCommits.keySet());
         ObjectId mergeCommit;
+        String parentRef = null;
         if (previousTag == null) {
-            mergeCommit = new SubtreeMerger(repository).createMergeCommit(parentCommits,
+            mergeCommit = subtreeMerger.createMergeCommit(parentCommits,
                     mergedRef.getMessage());
         } else {
-            RevCommit revCommit = getCommitOfTag(previousTag);
-            mergeCommit = new SubtreeMerger(repository).createMergeCommit(parentCommits, revCommit,
+            ObjectId revCommit = getCommitOfTag(previousTag);
+            if (revCommit != null) {
+                parentRef = "refs/tags/" + previousTag;
+            }
+            mergeCommit = subtreeMerger.createMergeCommit(parentCommits, revCommit,
                     mergedRef.getMessage());
         }
 
-        RefUpdate refUpdate = repository.updateRef("refs/heads/" + branch);
-        refUpdate.setNewObjectId(mergeCommit);
-        refUpdate.update();
-        mergedRefs.add(mergedRef);
-    }
-
-    public static List<MergedRef> getMergedRefs() {
-        return mergedRefs;
+        session.getRefTransaction().update("refs/heads/" + branch, mergeCommit);
+        session.recordMerged("refs/heads/" + branch, mergeCommit, resolvedRefs, parentRef);
+        session.getMergedRefs().addBranch(mergedRef);
+        METRICS.increment("branches.merged");
+        METRICS.recordSince("branch.merge", start);
     }
 }
\ No newline at end of file
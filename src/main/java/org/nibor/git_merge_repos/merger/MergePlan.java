@@ -0,0 +1,272 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tags and branches a merge will create, as worked out by
+ * {@link MergePlanner} without writing any objects, so that problems show up
+ * before a long merge and the merge can start from the plan instead of
+ * discovering everything again.
+ * <p>
+ * The file starts with a <code>repo</code> line per input, followed by a line
+ * per ref in merge order: first the tags that don't belong to a branch, then
+ * the tags of each branch followed by the branch. A ref line has the type,
+ * the name, the branch it belongs to, the tag the merged commit gets as first
+ * parent, the number of trees the merge writes, the status (<code>ok</code>,
+ * or the problem found) and pairs of repository name and original object id,
+ * separated by tabs; <code>-</code> stands for none.
+ */
+public class MergePlan {
+
+    public static final String OK = "ok";
+
+    private static final String NONE = "-";
+
+    private final List<SubtreeConfig> subtreeConfigs;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public MergePlan(List<SubtreeConfig> subtreeConfigs) {
+        this.subtreeConfigs = subtreeConfigs;
+    }
+
+    public void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return the entries whose status is not {@link #OK}
+     */
+    public List<Entry> getProblems() {
+        List<Entry> problems = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!OK.equals(entry.status)) {
+                problems.add(entry);
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * @return tags that don't belong to a branch, in merge order
+     */
+    public List<String> getUngroupedTags() {
+        List<String> tags = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.isTag() && entry.branch == null) {
+                tags.add(entry.name);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * @return the tags grouped under each branch as planned
+     */
+    public TagIndex getTagIndex() {
+        Map<String, List<String>> tagsByBranch = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.branch != null) {
+                List<String> tags = tagsByBranch.computeIfAbsent(entry.branch, b -> new ArrayList<>());
+                if (entry.isTag()) {
+                    tags.add(entry.name);
+                }
+            }
+        }
+        return TagIndex.of(tagsByBranch);
+    }
+
+    /**
+     * @return parent tag of the first tag of each branch, like
+     *         <code>parentTag.properties</code>
+     */
+    public Map<String, String> getTagParentInfo() {
+        Map<String, String> tagParentInfo = new HashMap<>();
+        Set<String> branches = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            if (entry.isTag() && entry.branch != null && branches.add(entry.branch)) {
+                tagParentInfo.put(entry.name, entry.parent);
+            }
+        }
+        return tagParentInfo;
+    }
+
+    /**
+     * @return the index of the original refs as planned, the tags of earlier
+     *         merges are read from the repository
+     */
+    public RefIndex buildRefIndex(Repository repository) throws IOException {
+        Map<String, Ref> branches = new HashMap<>();
+        Map<String, Ref> tags = new HashMap<>();
+        for (Entry entry : entries) {
+            Map<String, Ref> refs = entry.isTag() ? tags : branches;
+            String prefix = entry.isTag() ? RepoMerger.TAGS : RepoMerger.HEADS;
+            for (Map.Entry<String, ObjectId> original : entry.originals.entrySet()) {
+                String name = original.getKey() + "/" + entry.name;
+                refs.put(name, new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, prefix + name, original.getValue()));
+            }
+        }
+        return RefIndex.build(repository, subtreeConfigs, branches, tags);
+    }
+
+    public void save(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (SubtreeConfig config : subtreeConfigs) {
+                writer.write("repo\t" + config.getRemoteName() + "\t" + config.getSubtreeDirectory() + "\n");
+            }
+            for (Entry entry : entries) {
+                writer.write(entry.type + "\t" + entry.name + "\t" + orNone(entry.branch) + "\t"
+                        + orNone(entry.parent) + "\t" + entry.trees + "\t" + entry.status);
+                for (Map.Entry<String, ObjectId> original : entry.originals.entrySet()) {
+                    writer.write("\t" + original.getKey() + "\t" + original.getValue().name());
+                }
+                writer.write("\n");
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the plan was made for other inputs
+     */
+    public static MergePlan load(File file, List<SubtreeConfig> subtreeConfigs) throws IOException {
+        MergePlan plan = new MergePlan(subtreeConfigs);
+        List<String> repositories = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields[0].equals("repo") && fields.length == 3) {
+                    repositories.add(fields[1] + ":" + fields[2]);
+                } else if ((fields[0].equals(Entry.TAG) || fields[0].equals(Entry.BRANCH))
+                        && fields.length >= 6 && fields.length % 2 == 0) {
+                    Entry entry = new Entry(fields[0], fields[1], fromNone(fields[2]), fromNone(fields[3]));
+                    entry.trees = Integer.parseInt(fields[4]);
+                    entry.status = fields[5];
+                    for (int i = 6; i + 1 < fields.length; i += 2) {
+                        entry.originals.put(fields[i], ObjectId.fromString(fields[i + 1]));
+                    }
+                    plan.add(entry);
+                } else {
+                    throw new IOException("Invalid line in plan " + file + ": " + line);
+                }
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        for (SubtreeConfig config : subtreeConfigs) {
+            expected.add(config.getRemoteName() + ":" + config.getSubtreeDirectory());
+        }
+        if (!repositories.equals(expected)) {
+            throw new IllegalArgumentException("Plan " + file + " was made for " + repositories + ", not for "
+                    + expected);
+        }
+        return plan;
+    }
+
+    private static String orNone(String value) {
+        return value == null ? NONE : value;
+    }
+
+    private static String fromNone(String value) {
+        return NONE.equals(value) ? null : value;
+    }
+
+    /**
+     * A planned tag or branch.
+     */
+    public static class Entry {
+
+        public static final String TAG = "tag";
+
+        public static final String BRANCH = "branch";
+
+        private final String type;
+
+        private final String name;
+
+        private final String branch;
+
+        private final String parent;
+
+        // Original object id by repository name, in the order of the configs
+        private final Map<String, ObjectId> originals = new LinkedHashMap<>();
+
+        private int trees;
+
+        private String status = OK;
+
+        /**
+         * @param branch
+         *            branch the ref belongs to, <code>null</code> for a tag
+         *            without one
+         * @param parent
+         *            tag whose merged commit becomes the first parent, or
+         *            <code>null</code>
+         */
+        public Entry(String type, String name, String branch, String parent) {
+            this.type = type;
+            this.name = name;
+            this.branch = branch;
+            this.parent = parent;
+        }
+
+        public boolean isTag() {
+            return TAG.equals(type);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getParent() {
+            return parent;
+        }
+
+        public Map<String, ObjectId> getOriginals() {
+            return originals;
+        }
+
+        public void putOriginal(String repositoryName, ObjectId objectId) {
+            originals.put(repositoryName, objectId.copy());
+        }
+
+        public int getTrees() {
+            return trees;
+        }
+
+        public void setTrees(int trees) {
+            this.trees = trees;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+    }
+}
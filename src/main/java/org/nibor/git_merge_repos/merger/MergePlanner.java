@@ -0,0 +1,199 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.nibor.git_merge_repos.util.FileUtil;
+import org.nibor.git_merge_repos.vo.MergeOptions;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+import static org.nibor.git_merge_repos.log.LoggerUtil.PLAN_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Works out the {@link MergePlan} from the refs fetched by prepare and
+ * <code>parentTag.properties</code>, without fetching or writing objects.
+ * Overlapping inputs are found by the {@link OverlapAnalyzer}, the other
+ * merged trees are composed like the shallow tree mode does, but only their
+ * ids are computed to count the trees the merge will write. A parent tag the
+ * merge ignores because it is only merged after its child tag (see
+ * {@link MergeScheduler}) is planned as none.
+ */
+public class MergePlanner extends RepoMerger {
+
+    public static final String OVERLAP = "overlap";
+
+    public static final String MISSING_PARENT = "missing-parent";
+
+    public MergePlanner(String outputRepositoryPath, List<SubtreeConfig> subtreeConfigs,
+                        MergeOptions options) throws IOException {
+        super(outputRepositoryPath, subtreeConfigs, options);
+    }
+
+    public MergePlan plan() throws IOException {
+        RefIndex refIndex = buildRefIndex();
+        Collection<String> tags = refIndex.getTagNames();
+        Collection<String> branches = refIndex.getBranchNames();
+        if (tags.isEmpty() && branches.isEmpty()) {
+            throw new IllegalStateException("No fetched tags or branches in " + repository.getDirectory()
+                    + ", run prepare first");
+        }
+        Map<String, String> tagParentInfo = FileUtil.loadMap();
+        TagIndex tagIndex = groupTagsUnderBranch(branches, tags);
+
+        MergePlan plan = new MergePlan(subtreeConfigs);
+        for (String tag : tagIndex.getUngroupedTags(tags)) {
+            plan.add(new MergePlan.Entry(MergePlan.Entry.TAG, tag, null, null));
+        }
+        for (String branch : tagIndex.getBranches()) {
+            String parent = null;
+            for (String tag : tagIndex.getTags(branch)) {
+                if (parent == null) {
+                    parent = tagParentInfo.get(tag);
+                    if (parent != null && !tagIndex.isMergedBefore(parent, branch)) {
+                        // Like the merge does, see MergeScheduler
+                        PLAN_LOG.log(Level.SEVERE, "Parent tag " + parent + " of " + tag
+                                + " is merged after it, merging " + tag + " without parent tag");
+                        parent = null;
+                    }
+                }
+                plan.add(new MergePlan.Entry(MergePlan.Entry.TAG, tag, branch, parent));
+                parent = tag;
+            }
+            plan.add(new MergePlan.Entry(MergePlan.Entry.BRANCH, branch, branch, parent));
+        }
+
+        try (MergeSession session = new MergeSession(repository, refIndex, options)) {
+            METRICS.time("plan", () -> check(plan, session, new HashSet<>(tags)));
+        }
+        return plan;
+    }
+
+    /**
+     * Checks every fetched tag and branch for overlapping inputs.
+     *
+     * @return overlapping paths of the refs that have any, by full ref name
+     */
+    public Map<String, List<String>> checkOverlaps() throws IOException {
+        RefIndex refIndex = buildRefIndex();
+        Map<String, Map<SubtreeConfig, ObjectId>> refs = new LinkedHashMap<>();
+        for (String tag : refIndex.getTagNames()) {
+            refs.put(R_TAGS + tag, refIndex.resolve(TAGS, tag));
+        }
+        for (String branch : refIndex.getBranchNames()) {
+            refs.put(R_HEADS + branch, refIndex.resolve(HEADS, branch));
+        }
+        if (refs.isEmpty()) {
+            throw new IllegalStateException("No fetched tags or branches in " + repository.getDirectory()
+                    + ", run prepare first");
+        }
+        Map<String, List<String>> overlaps = METRICS.time("check",
+                () -> new OverlapAnalyzer(repository, options.getCheckThreads()).analyze(refs));
+        PLAN_LOG.log(Level.INFO, "Checked " + refs.size() + " refs, " + overlaps.size()
+                + " with overlapping inputs");
+        return overlaps;
+    }
+
+    private void check(MergePlan plan, MergeSession session, Set<String> tags) throws IOException {
+        Map<String, Map<SubtreeConfig, ObjectId>> refs = new LinkedHashMap<>();
+        for (MergePlan.Entry entry : plan.getEntries()) {
+            String refPrefix = entry.isTag() ? TAGS : HEADS;
+            refs.put(refPrefix + entry.getName(), session.getRefIndex().resolve(refPrefix, entry.getName()));
+        }
+        Map<String, List<String>> overlapping = new OverlapAnalyzer(repository, options.getCheckThreads())
+                .analyze(refs);
+
+        // Inputs composed so far, the merge reuses their trees from its cache
+        Set<TreeCache.Key> composed = new HashSet<>();
+        int trees = 0;
+        int overlaps = 0;
+        int missingParents = 0;
+        for (MergePlan.Entry entry : plan.getEntries()) {
+            String refPrefix = entry.isTag() ? TAGS : HEADS;
+            List<String> directories = new ArrayList<>();
+            List<ObjectId> treeIds = new ArrayList<>();
+            for (Map.Entry<SubtreeConfig, ObjectId> original : refs.get(refPrefix + entry.getName()).entrySet()) {
+                entry.putOriginal(original.getKey().getRemoteName(), original.getValue());
+                RevObject object = session.peel(session.parseAny(original.getValue()));
+                if (!(object instanceof RevCommit)) {
+                    throw new IllegalStateException(refPrefix + original.getKey().getRemoteName() + "/"
+                            + entry.getName() + " does not point to a commit, but to " + object);
+                }
+                directories.add(original.getKey().getSubtreeDirectory());
+                treeIds.add(((RevCommit) object).getTree().copy());
+            }
+
+            String parent = entry.getParent();
+            if (parent != null && !tags.contains(parent)
+                    && session.getRefIndex().getMergedTagCommit(parent) == null) {
+                PLAN_LOG.log(Level.SEVERE, "Parent tag " + parent + " of " + entry.getName() + " does not exist");
+                entry.setStatus(MISSING_PARENT);
+                missingParents++;
+            }
+
+            List<String> paths = overlapping.get(refPrefix + entry.getName());
+            if (paths != null) {
+                PLAN_LOG.log(Level.SEVERE, (entry.isTag() ? "Tag " : "Branch ") + entry.getName()
+                        + " has overlapping inputs at " + paths);
+                entry.setStatus(OVERLAP);
+                overlaps++;
+                continue;
+            }
+            if (!composed.add(TreeCache.key(directories, treeIds))) {
+                continue;
+            }
+            List<TreeComposer.Source> sources = new ArrayList<>();
+            for (int i = 0; i < treeIds.size(); i++) {
+                sources.add(TreeComposer.source(treeIds.get(i), directories.get(i)));
+            }
+            TreeIdCounter counter = new TreeIdCounter();
+            new TreeComposer(session.getReader(), counter).compose(sources,
+                    (entry.isTag() ? "Tag " : "Branch ") + entry.getName());
+            entry.setTrees(counter.trees.size());
+            trees += counter.trees.size();
+        }
+        PLAN_LOG.log(Level.INFO, "Planned " + plan.getEntries().size() + " refs writing " + trees + " trees, "
+                + overlaps + " with overlapping inputs, " + missingParents + " with a missing parent tag");
+    }
+
+    /**
+     * Computes the ids of the inserted objects without writing them, and
+     * remembers the distinct trees.
+     */
+    private static class TreeIdCounter extends ObjectInserter.Formatter {
+
+        private final Set<ObjectId> trees = new HashSet<>();
+
+        @Override
+        public ObjectId insert(int objectType, byte[] data, int off, int len) {
+            return counted(objectType, idFor(objectType, data, off, len));
+        }
+
+        @Override
+        public ObjectId insert(int objectType, long length, InputStream in) throws IOException {
+            return counted(objectType, idFor(objectType, length, in));
+        }
+
+        private ObjectId counted(int objectType, ObjectId id) {
+            if (objectType == Constants.OBJ_TREE) {
+                trees.add(id);
+            }
+            return id;
+        }
+    }
+}
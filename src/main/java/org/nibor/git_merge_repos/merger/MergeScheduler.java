@@ -0,0 +1,342 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.nibor.git_merge_repos.vo.MergeOptions.TreeMode;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.HEADS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.TAGS;
+
+/**
+ * Merges tags that don't belong to a branch and the tag chains of all branches
+ * on a pool of workers, each with its own {@link MergeSession#fork() session}.
+ * <p>
+ * The jobs are ordered like the sequential merge: first every tag without a
+ * branch, then the chain of each branch in name order, followed by the branch
+ * itself. A job only waits for the earlier jobs it depends on, i.e. the one
+ * merging the parent tag (from <code>parentTag.properties</code>) of its first
+ * tag and ones merging one of its tags as well. A parent tag that belongs to
+ * the same or a later branch is ignored, as it would not exist yet in a
+ * sequential merge of all tags either, so that the result is the same as
+ * merging one job after another, whether or not that branch has a job.
+ * <p>
+ * Tags and branches that an earlier run merged from the same original refs
+ * onto the same parent tag (see {@link MergeState}) are left out; the ones
+ * the interrupted run merged are taken over from its journal.
+ */
+public class MergeScheduler {
+
+    private final List<SubtreeConfig> subtreeConfigs;
+
+    private final MergeSession session;
+
+    private final TreeMode treeMode;
+
+    private final TreeCache treeCache;
+
+    private final Map<String, String> tagParentInfo;
+
+    private final int threads;
+
+    private final int progressSeconds;
+
+    /**
+     * @param progressSeconds
+     *            interval of the logged progress, 0 for none
+     */
+    public MergeScheduler(List<SubtreeConfig> subtreeConfigs, MergeSession session, TreeMode treeMode,
+                          TreeCache treeCache, Map<String, String> tagParentInfo, int threads,
+                          int progressSeconds) {
+        this.subtreeConfigs = subtreeConfigs;
+        this.session = session;
+        this.treeMode = treeMode;
+        this.treeCache = treeCache;
+        this.tagParentInfo = tagParentInfo;
+        this.threads = threads;
+        this.progressSeconds = progressSeconds;
+    }
+
+    /**
+     * Merges all given tags and branches and flushes their objects.
+     */
+    public void run(Collection<String> ungroupedTags, TagIndex tagIndex) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Job> jobs = createJobs(ungroupedTags, tagIndex);
+        if (jobs.isEmpty()) {
+            MERGE_LOG.log(Level.INFO, "All tags and branches are up to date");
+            return;
+        }
+        Map<String, String> parents = linkJobs(jobs, tagIndex);
+
+        List<Worker> workers = new ArrayList<>();
+        BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+        int workerCount = Math.max(1, Math.min(threads, jobs.size()));
+        for (int i = 0; i < workerCount; i++) {
+            Worker worker = new Worker(session.fork(), parents);
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+
+        if (progressSeconds > 0) {
+            long tags = 0;
+            for (Job job : jobs) {
+                tags += job.tags.size();
+            }
+            METRICS.startProgress(MERGE_LOG, "tags.merged", "tags", tags, progressSeconds);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                CompletableFuture<?>[] dependencies = new CompletableFuture<?>[job.dependencies.size()];
+                int i = 0;
+                for (Job dependency : job.dependencies) {
+                    dependencies[i++] = futures.get(dependency.index);
+                }
+                futures.add(CompletableFuture.allOf(dependencies)
+                        .thenRunAsync(() -> runJob(job, idleWorkers), executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+            for (Worker worker : workers) {
+                worker.session.flush();
+            }
+        } catch (CompletionException e) {
+            throw new IOException("Merging failed due to " + e.getCause(), e.getCause());
+        } finally {
+            METRICS.stopProgress();
+            executor.shutdownNow();
+            for (Worker worker : workers) {
+                worker.session.close();
+            }
+        }
+        MERGE_LOG.log(Level.INFO, "Merged " + jobs.size() + " tag chains with " + workerCount + " workers in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Creates the jobs for the tags and branches that are not
+     * {@link MergeState#isUpToDate up to date}. Of a tag chain, the first tag
+     * that is new, has moved or gets another parent tag and all tags after it
+     * are merged again, based on the tag before it; the same holds for a
+     * chain whose first tag has a parent tag that is merged again.
+     */
+    private List<Job> createJobs(Collection<String> ungroupedTags, TagIndex tagIndex) throws IOException {
+        Set<String> tags = new HashSet<>(ungroupedTags);
+        tags.addAll(tagIndex.getGroupedTags());
+        List<Job> jobs = new ArrayList<>();
+        Set<String> mergedTags = new HashSet<>();
+        for (String tag : ungroupedTags) {
+            if (!isUpToDate(TAGS, tag, null, tags)) {
+                jobs.add(new Job(Collections.singletonList(tag), null, null));
+                mergedTags.add(tag);
+            }
+        }
+        int upToDateTags = 0;
+        for (String branch : tagIndex.getBranches()) {
+            List<String> chain = tagIndex.getTags(branch);
+            int first = 0;
+            String parentTag = chain.isEmpty() ? null : getParentOfFirstTag(tagIndex, branch, chain.get(0));
+            if (parentTag == null || !mergedTags.contains(parentTag)) {
+                while (first < chain.size() && isUpToDate(TAGS, chain.get(first), parentTag, tags)) {
+                    parentTag = chain.get(first);
+                    first++;
+                }
+            }
+            upToDateTags += first;
+            String previousTag = first > 0 ? chain.get(first - 1) : null;
+            String lastTag = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+            if (first < chain.size() || !isUpToDate(HEADS, branch, lastTag, tags)) {
+                jobs.add(new Job(chain.subList(first, chain.size()), branch, previousTag));
+                mergedTags.addAll(chain.subList(first, chain.size()));
+            }
+        }
+        if (upToDateTags > 0) {
+            MERGE_LOG.log(Level.INFO, "Skipping " + upToDateTags + " tags of branches merged by an earlier run");
+        }
+        return jobs;
+    }
+
+    /**
+     * @return the parent tag from <code>parentTag.properties</code> the first
+     *         tag of a branch is merged onto, <code>null</code> if there is
+     *         none or it is only merged after the tag
+     */
+    private String getParentOfFirstTag(TagIndex tagIndex, String branch, String tag) {
+        String parentTag = tagParentInfo.get(tag);
+        return parentTag != null && tagIndex.isMergedBefore(parentTag, branch) ? parentTag : null;
+    }
+
+    /**
+     * Tells whether the ref was merged before from the same originals onto
+     * the same parent tag. If the interrupted run merged it, its ref is
+     * queued and its tag registered as a parent for the tags merged by this
+     * run.
+     *
+     * @param parentTag
+     *            tag the merged commit would be based on, <code>null</code>
+     *            for none
+     * @param tags
+     *            all tags merged by this run
+     */
+    private boolean isUpToDate(String refPrefix, String name, String parentTag, Set<String> tags)
+            throws IOException {
+        boolean tag = TAGS.equals(refPrefix);
+        String refName = (tag ? R_TAGS : R_HEADS) + name;
+        MergeState mergeState = session.getMergeState();
+        RefIndex refIndex = session.getRefIndex();
+        // The merge leaves out a parent tag that exists neither in the inputs nor as a merged tag
+        String parentRef = parentTag != null && (tags.contains(parentTag)
+                || refIndex.getMergedTagCommit(parentTag) != null) ? R_TAGS + parentTag : null;
+        if (!mergeState.isUpToDate(refName, refIndex.resolve(refPrefix, name), parentRef)) {
+            return false;
+        }
+        ObjectId resumedId = mergeState.getResumed(refName);
+        if (resumedId != null) {
+            session.getRefTransaction().update(refName, resumedId);
+            if (tag) {
+                refIndex.registerMergedTag(name, session.peel(session.parseAny(resumedId)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the dependencies of the jobs.
+     *
+     * @return the parent tags that will have been merged before their child
+     *         tags, or that don't get merged at all
+     */
+    private Map<String, String> linkJobs(List<Job> jobs, TagIndex tagIndex) {
+        Map<String, Job> firstJobOfTag = new HashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            job.index = i;
+            for (String tag : job.tags) {
+                Job earlier = firstJobOfTag.putIfAbsent(tag, job);
+                if (earlier != null && earlier != job) {
+                    job.dependencies.add(earlier);
+                }
+            }
+        }
+
+        Map<String, String> parents = new HashMap<>(tagParentInfo);
+        for (Job job : jobs) {
+            if (job.branch == null || job.tags.isEmpty()) {
+                continue;
+            }
+            String tag = job.tags.get(0);
+            String parentTag = job.previousTag;
+            if (parentTag == null) {
+                parentTag = getParentOfFirstTag(tagIndex, job.branch, tag);
+                if (parentTag == null && tagParentInfo.get(tag) != null) {
+                    MERGE_LOG.log(Level.SEVERE, "Parent tag " + tagParentInfo.get(tag) + " of " + tag
+                            + " is merged after it, merging " + tag + " without parent tag");
+                    parents.remove(tag);
+                }
+            }
+            Job parentJob = parentTag != null ? firstJobOfTag.get(parentTag) : null;
+            if (parentJob != null && parentJob.index < job.index) {
+                job.dependencies.add(parentJob);
+            }
+        }
+        return parents;
+    }
+
+    private void runJob(Job job, BlockingQueue<Worker> idleWorkers) {
+        Worker worker;
+        try {
+            worker = idleWorkers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        try {
+            if (job.branch == null) {
+                String tag = job.tags.get(0);
+                try {
+                    worker.ungroupedTagMerger.mergeTag(tag);
+                } catch (IOException e) {
+                    MERGE_LOG.log(Level.SEVERE, "Problem in merging tag " + tag + " due to " + e.getMessage());
+                }
+            } else {
+                try {
+                    String latestTag = worker.tagMerger.mergeTags(job.tags, job.previousTag);
+                    worker.branchMerger.mergeBranch(job.branch, latestTag);
+                } catch (Exception e) {
+                    MERGE_LOG.log(Level.SEVERE, "Problem in merging tags & branch of " + job.branch + " due to "
+                            + e.getMessage());
+                }
+            }
+            worker.session.checkpointIfDue();
+        } catch (IOException e) {
+            MERGE_LOG.log(Level.SEVERE, "Checkpoint after merging " + job.tags + " failed due to " + e.getMessage());
+        } finally {
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Tags merged one after another, followed by the branch if it is not
+     * <code>null</code>.
+     */
+    private static class Job {
+
+        private final List<String> tags;
+
+        private final String branch;
+
+        // Tag of the branch merged by an earlier run that the first tag is based on
+        private final String previousTag;
+
+        private final Set<Job> dependencies = new LinkedHashSet<>();
+
+        private int index;
+
+        Job(List<String> tags, String branch, String previousTag) {
+            this.tags = tags;
+            this.branch = branch;
+            this.previousTag = previousTag;
+        }
+    }
+
+    private class Worker {
+
+        private final MergeSession session;
+
+        private final TagMerger ungroupedTagMerger;
+
+        private final TagMerger tagMerger;
+
+        private final BranchMerger branchMerger;
+
+        Worker(MergeSession session, Map<String, String> parents) {
+            this.session = session;
+            SubtreeMerger subtreeMerger = new SubtreeMerger(session, treeMode, treeCache);
+            this.ungroupedTagMerger = new TagMerger(subtreeConfigs, session, subtreeMerger, Collections.emptyMap());
+            this.tagMerger = new TagMerger(subtreeConfigs, session, subtreeMerger, parents);
+            this.branchMerger = new BranchMerger(subtreeConfigs, session, subtreeMerger);
+        }
+    }
+}
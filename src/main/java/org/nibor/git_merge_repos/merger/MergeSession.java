@@ -0,0 +1,337 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.nibor.git_merge_repos.vo.MergeOptions;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Everything the mergers of one run share: the inserter new objects are written
+ * with, one reader that also sees the objects not flushed yet, one
+ * {@link RevWalk} parsed commits and tags are kept in, the ref index, the ref
+ * transaction, the merge state and the collected merged refs.
+ * <p>
+ * The walk is replaced by a new one once the configured number of objects
+ * has been parsed through it, so that memory stays bounded on long runs.
+ * <p>
+ * A session is used by one thread at a time; mergers running concurrently
+ * each use a {@link #fork()} with its own inserter, reader and walk.
+ */
+public class MergeSession implements AutoCloseable {
+
+    private final Repository repository;
+
+    private final BatchObjectInserter inserter;
+
+    private final CountingReader reader;
+
+    private final RefIndex refIndex;
+
+    private final RefTransaction refTransaction;
+
+    private final MergeState mergeState;
+
+    private final MergedRefCollector mergedRefs;
+
+    private final MergeOptions options;
+
+    private final Counters counters;
+
+    private final ForkJoinPool treePool;
+
+    // Whether this is the session forks were created from, which shuts the pool down
+    private final boolean root;
+
+    private RevWalk revWalk;
+
+    private int parsedObjects;
+
+    // Refs merged through this session that are not in the journal yet
+    private final List<String> unjournaledRefs = new ArrayList<>();
+
+    private long lastCheckpoint = System.currentTimeMillis();
+
+    /**
+     * Creates a session that only reads objects, e.g. for planning; it has
+     * no inserter and no pool to compose trees on.
+     */
+    public MergeSession(Repository repository, RefIndex refIndex, MergeOptions options) {
+        this(repository, null, refIndex, new RefTransaction(repository), new MergeState(), new MergedRefCollector(),
+                options, new Counters(), null, false);
+    }
+
+    /**
+     * Creates the session of a merge run.
+     */
+    public MergeSession(Repository repository, RefIndex refIndex, MergeState mergeState, MergeOptions options) {
+        this(repository, newInserter(repository, options), refIndex, new RefTransaction(repository), mergeState,
+                new MergedRefCollector(), options, new Counters(),
+                options.getTreeThreads() > 1 ? new ForkJoinPool(options.getTreeThreads()) : null, true);
+    }
+
+    private MergeSession(Repository repository, BatchObjectInserter inserter, RefIndex refIndex,
+                         RefTransaction refTransaction, MergeState mergeState, MergedRefCollector mergedRefs,
+                         MergeOptions options, Counters counters, ForkJoinPool treePool, boolean root) {
+        this.repository = repository;
+        this.inserter = inserter;
+        this.refIndex = refIndex;
+        this.refTransaction = refTransaction;
+        this.mergeState = mergeState;
+        this.mergedRefs = mergedRefs;
+        this.options = options;
+        this.counters = counters;
+        this.treePool = treePool;
+        this.root = root;
+        this.reader = newCountingReader();
+        this.revWalk = new RevWalk(reader);
+    }
+
+    private static BatchObjectInserter newInserter(Repository repository, MergeOptions options) {
+        return new BatchObjectInserter(repository, !options.isLooseObjects(), options.getPackFlushObjects(),
+                options.getPackFlushBytes());
+    }
+
+    /**
+     * @return a session for another thread, sharing refs and metrics with
+     *         this one; its objects are only readable through it until it is
+     *         flushed
+     */
+    public MergeSession fork() {
+        if (inserter == null) {
+            throw new IllegalStateException("Session only reads objects and can't be forked");
+        }
+        return new MergeSession(repository, newInserter(repository, options), refIndex, refTransaction, mergeState,
+                mergedRefs, options, counters, treePool, false);
+    }
+
+    public Repository getRepository() {
+        return repository;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if the session only reads objects
+     */
+    public BatchObjectInserter getInserter() {
+        if (inserter == null) {
+            throw new IllegalStateException("Session only reads objects, it has no inserter");
+        }
+        return inserter;
+    }
+
+    /**
+     * @return reader that sees all objects of the repository and the ones
+     *         inserted in this session
+     */
+    public ObjectReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return a new reader like {@link #getReader()} for use by another
+     *         thread, which the caller has to close
+     */
+    public ObjectReader newReader() {
+        return newCountingReader();
+    }
+
+    private CountingReader newCountingReader() {
+        return new CountingReader(inserter != null ? inserter.newReader() : repository.newObjectReader());
+    }
+
+    public RefIndex getRefIndex() {
+        return refIndex;
+    }
+
+    public RefTransaction getRefTransaction() {
+        return refTransaction;
+    }
+
+    public MergeState getMergeState() {
+        return mergeState;
+    }
+
+    public MergedRefCollector getMergedRefs() {
+        return mergedRefs;
+    }
+
+    /**
+     * @return pool large trees are composed on, <code>null</code> if they
+     *         should be composed in the calling thread
+     */
+    public ForkJoinPool getTreePool() {
+        return treePool;
+    }
+
+    public RevObject parseAny(AnyObjectId id) throws IOException {
+        long openedBefore = reader.count;
+        RevObject object = revWalk().parseAny(id);
+        counted(openedBefore);
+        return object;
+    }
+
+    public RevCommit parseCommit(AnyObjectId id) throws IOException {
+        long openedBefore = reader.count;
+        RevCommit commit = revWalk().parseCommit(id);
+        counted(openedBefore);
+        return commit;
+    }
+
+    public RevObject peel(RevObject object) throws IOException {
+        long openedBefore = reader.count;
+        RevObject peeled = revWalk().peel(object);
+        counted(openedBefore);
+        return peeled;
+    }
+
+    private RevWalk revWalk() {
+        if (parsedObjects >= options.getParsedObjectCacheSize()) {
+            // Objects returned earlier stay usable, they are just not cached anymore
+            revWalk.close();
+            revWalk = new RevWalk(reader);
+            parsedObjects = 0;
+        }
+        return revWalk;
+    }
+
+    private void counted(long openedBefore) {
+        counters.lookups.incrementAndGet();
+        long opened = reader.count - openedBefore;
+        if (opened == 0) {
+            counters.hits.incrementAndGet();
+        }
+        parsedObjects += opened;
+    }
+
+    /**
+     * Records a merged tag or branch in the merge state; it is journaled with
+     * the next {@link #flush()}, but not before its parent ref.
+     *
+     * @param parentRef
+     *            ref of the merged commit the merged ref is based on,
+     *            <code>null</code> if there is none
+     */
+    public void recordMerged(String refName, ObjectId mergedId, Map<SubtreeConfig, ObjectId> originals,
+                             String parentRef) {
+        mergeState.put(refName, mergedId, originals, parentRef);
+        unjournaledRefs.add(refName);
+    }
+
+    /**
+     * Flushes if the last flush is longer ago than the checkpoint interval.
+     */
+    public void checkpointIfDue() throws IOException {
+        if (System.currentTimeMillis() - lastCheckpoint >= options.getCheckpointMillis()) {
+            flush();
+        }
+    }
+
+    /**
+     * Flushes the inserted objects, then journals the refs merged since the
+     * last flush. Refs based on a commit another session has not flushed yet
+     * are only journaled once it has.
+     */
+    public void flush() throws IOException {
+        getInserter().flush();
+        if (!unjournaledRefs.isEmpty()) {
+            mergeState.journal(unjournaledRefs);
+            unjournaledRefs.clear();
+        }
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /**
+     * Logs the counters of all sessions and adds them to the metrics report.
+     */
+    public void logMetrics(Logger logger) {
+        long lookups = counters.lookups.get();
+        METRICS.add("objects.parsed", lookups);
+        METRICS.add("objects.parsedFromCache", counters.hits.get());
+        METRICS.add("objects.opened", counters.opened.get());
+        METRICS.add("bytes.inflated", counters.inflated.get());
+        long hitRate = lookups == 0 ? 0 : counters.hits.get() * 100 / lookups;
+        logger.log(Level.INFO, "Parsed objects: " + lookups + " lookups, " + hitRate + "% from cache");
+        logger.log(Level.INFO, "Object reader: " + counters.opened.get() + " objects opened, "
+                + counters.inflated.get() + " bytes inflated");
+    }
+
+    @Override
+    public void close() {
+        revWalk.close();
+        reader.close();
+        if (inserter != null) {
+            inserter.close();
+        }
+        if (root && treePool != null) {
+            treePool.shutdown();
+        }
+    }
+
+    /**
+     * Counts the objects opened and the bytes they take up once inflated.
+     */
+    private class CountingReader extends ObjectReader.Filter {
+
+        private final ObjectReader delegate;
+
+        // Objects opened through this reader only, the session counts all readers
+        private long count;
+
+        CountingReader(ObjectReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected ObjectReader delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId) throws MissingObjectException, IOException {
+            return counted(delegate.open(objectId));
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId, int typeHint)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            return counted(delegate.open(objectId, typeHint));
+        }
+
+        private ObjectLoader counted(ObjectLoader loader) {
+            count++;
+            counters.opened.incrementAndGet();
+            counters.inflated.addAndGet(loader.getSize());
+            return loader;
+        }
+    }
+
+    private static class Counters {
+
+        private final AtomicLong lookups = new AtomicLong();
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong opened = new AtomicLong();
+
+        private final AtomicLong inflated = new AtomicLong();
+    }
+}
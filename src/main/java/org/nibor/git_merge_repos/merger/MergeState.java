@@ -0,0 +1,298 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+
+/**
+ * Remembers which original refs every merged tag and branch was created from,
+ * i.e. for each merged ref the original object id of the ref in every input
+ * repository, and the merged tag its commit is based on. An incremental run
+ * only merges refs whose originals are new or have moved, or whose parent tag
+ * has changed, since the state was saved.
+ * <p>
+ * The file has one line per merged ref: the merged object id, the ref name,
+ * the ref of the parent tag (<code>-</code> for none) and pairs of repository
+ * name and original object id, separated by tabs. It must only be saved once
+ * the merged refs have been updated.
+ * <p>
+ * While merging, refs are also appended to a journal in the same format as
+ * soon as their objects are flushed. A ref whose merged commit is based on the
+ * commit of another ref merged in this run only follows that ref into the
+ * journal, as its objects may have been flushed by another session later. A
+ * resumed run treats the refs in the journal of the interrupted run as merged
+ * and only writes their refs.
+ */
+public class MergeState {
+
+    private static final String NONE = "-";
+
+    // Refs merged by earlier runs, as loaded
+    private final Map<String, Entry> previous = new TreeMap<>();
+
+    // Refs merged by an interrupted run, whose refs were not written yet
+    private final Map<String, Entry> resumed = new LinkedHashMap<>();
+
+    private final Map<String, Entry> merged = new ConcurrentHashMap<>();
+
+    // Refs of this run in the journal, and the flushed ones waiting for their parent ref
+    private final Set<String> journaled = new HashSet<>();
+
+    private final Set<String> waiting = new LinkedHashSet<>();
+
+    private FileOutputStream journalStream;
+
+    private Writer journal;
+
+    public static MergeState load(File file) {
+        MergeState state = new MergeState();
+        if (!file.exists()) {
+            MERGE_LOG.log(Level.SEVERE, "No merge state in " + file + ", merging all refs");
+            return state;
+        }
+        read(file, state.previous);
+        MERGE_LOG.log(Level.INFO, "Loaded merge state of " + state.previous.size() + " refs from " + file);
+        return state;
+    }
+
+    /**
+     * Takes over the refs in the journal of an interrupted run.
+     */
+    public void loadJournal(File file) {
+        if (!file.exists()) {
+            MERGE_LOG.log(Level.SEVERE, "No merge journal in " + file + ", nothing to resume");
+            return;
+        }
+        read(file, resumed);
+        MERGE_LOG.log(Level.INFO, "Resuming after " + resumed.size() + " refs merged before from " + file);
+    }
+
+    private static void read(File file, Map<String, Entry> entries) {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    if (fields.length < 3 || fields.length % 2 != 1) {
+                        throw new IllegalArgumentException("wrong number of fields");
+                    }
+                    Entry entry = new Entry(ObjectId.fromString(fields[0]));
+                    entry.parentRef = NONE.equals(fields[2]) ? null : fields[2];
+                    for (int i = 3; i + 1 < fields.length; i += 2) {
+                        entry.originals.put(fields[i], ObjectId.fromString(fields[i + 1]));
+                    }
+                    entries.put(fields[1], entry);
+                } catch (IllegalArgumentException e) {
+                    // E.g. the last line of a journal that was cut off, the ref is merged again
+                    MERGE_LOG.log(Level.SEVERE, "Ignoring invalid line in " + file + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read merge state " + file + " due to " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forgets the merged refs that no longer point to the object they were
+     * merged to, e.g. because they were deleted, so that they get merged
+     * again.
+     */
+    public void retainExisting(Repository repository) throws IOException {
+        for (Iterator<Map.Entry<String, Entry>> it = previous.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> entry = it.next();
+            Ref ref = repository.exactRef(entry.getKey());
+            if (ref == null || !entry.getValue().mergedId.equals(ref.getObjectId())) {
+                MERGE_LOG.log(Level.INFO, "Merged ref " + entry.getKey() + " changed since the last run");
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param parentRef
+     *            ref of the merged tag the ref would be based on,
+     *            <code>null</code> if none
+     * @return whether an earlier or the interrupted run merged the ref from
+     *         the same originals onto the same parent tag
+     */
+    public boolean isUpToDate(String refName, Map<SubtreeConfig, ObjectId> originals, String parentRef) {
+        Entry entry = resumed.get(refName);
+        if (entry == null) {
+            entry = previous.get(refName);
+        }
+        return entry != null && entry.originals.equals(toOriginals(originals))
+                && Objects.equals(entry.parentRef, parentRef);
+    }
+
+    /**
+     * @return whether an earlier run created the ref, which may then be
+     *         updated rather than created
+     */
+    public boolean wasMerged(String refName) {
+        return previous.containsKey(refName);
+    }
+
+    /**
+     * @return merged object of each ref in the journal of the interrupted run
+     */
+    public Map<String, ObjectId> getResumed() {
+        Map<String, ObjectId> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : resumed.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().mergedId);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return merged object of the ref in the journal of the interrupted run,
+     *         <code>null</code> if it is not there
+     */
+    public ObjectId getResumed(String refName) {
+        Entry entry = resumed.get(refName);
+        return entry != null ? entry.mergedId : null;
+    }
+
+    /**
+     * Records a ref merged in this run.
+     *
+     * @param parentRef
+     *            ref whose merged commit is a parent of the merged commit,
+     *            <code>null</code> if there is none
+     */
+    public void put(String refName, ObjectId mergedId, Map<SubtreeConfig, ObjectId> originals, String parentRef) {
+        Entry entry = new Entry(mergedId.copy());
+        entry.parentRef = parentRef;
+        entry.originals.putAll(toOriginals(originals));
+        merged.put(refName, entry);
+    }
+
+    /**
+     * Starts a new journal, or continues the one of the interrupted run.
+     */
+    public synchronized void openJournal(File file, boolean append) throws IOException {
+        boolean cutOff = false;
+        if (append && file.length() > 0) {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                in.seek(file.length() - 1);
+                cutOff = in.read() != '\n';
+            }
+        }
+        journalStream = new FileOutputStream(file, append);
+        journal = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+        if (cutOff) {
+            // Don't continue the cut off line, it is ignored when loading
+            journal.write('\n');
+        }
+    }
+
+    /**
+     * Appends refs merged in this run to the journal and syncs it. Their
+     * objects must have been flushed. A ref whose parent ref was merged in
+     * this run but is not in the journal yet waits until it is.
+     */
+    public synchronized void journal(Collection<String> refNames) throws IOException {
+        if (journal == null) {
+            return;
+        }
+        waiting.addAll(refNames);
+        boolean written;
+        do {
+            written = false;
+            for (Iterator<String> it = waiting.iterator(); it.hasNext(); ) {
+                String refName = it.next();
+                Entry entry = merged.get(refName);
+                if (entry.parentRef == null || !merged.containsKey(entry.parentRef)
+                        || journaled.contains(entry.parentRef)) {
+                    write(journal, refName, entry);
+                    journaled.add(refName);
+                    it.remove();
+                    written = true;
+                }
+            }
+        } while (written && !waiting.isEmpty());
+        journal.flush();
+        journalStream.getFD().sync();
+    }
+
+    public synchronized void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    public void save(File file) throws IOException {
+        Map<String, Entry> entries = new TreeMap<>(previous);
+        entries.putAll(resumed);
+        entries.putAll(merged);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                write(writer, entry.getKey(), entry.getValue());
+            }
+        }
+        MERGE_LOG.log(Level.INFO, "Saved merge state of " + entries.size() + " refs to " + file);
+    }
+
+    private static void write(Writer writer, String refName, Entry entry) throws IOException {
+        writer.write(entry.mergedId.name());
+        writer.write('\t');
+        writer.write(refName);
+        writer.write('\t');
+        writer.write(entry.parentRef != null ? entry.parentRef : NONE);
+        for (Map.Entry<String, ObjectId> original : entry.originals.entrySet()) {
+            writer.write('\t');
+            writer.write(original.getKey());
+            writer.write('\t');
+            writer.write(original.getValue().name());
+        }
+        writer.write('\n');
+    }
+
+    private static Map<String, ObjectId> toOriginals(Map<SubtreeConfig, ObjectId> originals) {
+        Map<String, ObjectId> result = new TreeMap<>();
+        for (Map.Entry<SubtreeConfig, ObjectId> entry : originals.entrySet()) {
+            result.put(entry.getKey().getRemoteName(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static class Entry {
+
+        private final ObjectId mergedId;
+
+        // Original object id by repository name
+        private final Map<String, ObjectId> originals = new TreeMap<>();
+
+        private String parentRef;
+
+        Entry(ObjectId mergedId) {
+            this.mergedId = mergedId;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.nibor.git_merge_repos.vo.MergedRef;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Collects the refs merged by all mergers of a run, which may be running
+ * concurrently. Refs are reported ordered by type (tags first) and name, so
+ * that the result doesn't depend on the order they were merged in.
+ */
+public class MergedRefCollector {
+
+    private final Map<String, MergedRef> tags = new ConcurrentSkipListMap<>();
+
+    private final Map<String, MergedRef> branches = new ConcurrentSkipListMap<>();
+
+    public void addTag(MergedRef mergedRef) {
+        tags.put(mergedRef.getRefName(), mergedRef);
+    }
+
+    public void addBranch(MergedRef mergedRef) {
+        branches.put(mergedRef.getRefName(), mergedRef);
+    }
+
+    public List<MergedRef> getMergedRefs() {
+        List<MergedRef> result = new ArrayList<>(tags.size() + branches.size());
+        result.addAll(tags.values());
+        result.addAll(branches.values());
+        return result;
+    }
+}
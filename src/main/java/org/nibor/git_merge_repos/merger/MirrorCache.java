@@ -0,0 +1,162 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.nibor.git_merge_repos.log.LoggingProgressMonitor;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Keeps a bare mirror of every input repository in a cache directory, so that
+ * prepare, merge and later runs don't transfer the inputs again. The mirror of
+ * a fetch URI is <code>&lt;cache&gt;/&lt;hash of URI&gt;/&lt;repo&gt;.git</code>.
+ * <p>
+ * Each mirror records the branches and tags it was last updated to in
+ * <code>ref-snapshot</code>. A mirror is only fetched into if the refs the
+ * input advertises differ from the snapshot, and then only the new objects
+ * are transferred.
+ */
+public class MirrorCache extends RepoFetcher {
+
+    private static final String SNAPSHOT = "ref-snapshot";
+
+    private final File directory;
+
+    public MirrorCache(File directory, Logger logger, int threads, int threadsPerHost) {
+        super(logger, threads, threadsPerHost);
+        this.directory = directory;
+    }
+
+    /**
+     * Brings the mirrors of the inputs up to date.
+     *
+     * @return configs like the given ones, but with the mirrors as fetch URIs
+     */
+    public List<SubtreeConfig> update(List<SubtreeConfig> subtreeConfigs) throws IOException {
+        fetch(subtreeConfigs);
+        List<SubtreeConfig> mirrorConfigs = new ArrayList<>();
+        for (SubtreeConfig config : subtreeConfigs) {
+            try {
+                URIish mirrorUri = new URIish(getMirrorDirectory(config).getAbsolutePath());
+                mirrorConfigs.add(new SubtreeConfig(config.getSubtreeDirectory(), mirrorUri));
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException("Mirror of " + config.getFetchUri() + " has no valid path", e);
+            }
+        }
+        return mirrorConfigs;
+    }
+
+    private File getMirrorDirectory(SubtreeConfig config) {
+        // Without the password, which may change while the repository stays the same
+        byte[] uri = Constants.encode(config.getFetchUri().toString());
+        String hash = ObjectId.fromRaw(Constants.newMessageDigest().digest(uri)).abbreviate(12).name();
+        return new File(new File(directory, hash), config.getRemoteName() + ".git");
+    }
+
+    @Override
+    protected void fetchRepository(SubtreeConfig config) throws Exception {
+        String repositoryName = config.getRemoteName();
+        File mirrorDirectory = getMirrorDirectory(config);
+        File snapshotFile = new File(mirrorDirectory, SNAPSHOT);
+        try (Repository mirror = new FileRepository(mirrorDirectory)) {
+            if (!mirrorDirectory.exists()) {
+                getLogger().log(Level.INFO, "Creating mirror of " + repositoryName + " in " + mirrorDirectory);
+                mirror.create(true);
+            } else if (snapshotFile.exists()) {
+                Map<String, ObjectId> advertised = listRemote(config);
+                if (advertised.equals(readSnapshot(snapshotFile))) {
+                    METRICS.increment("mirrors.upToDate");
+                    getLogger().log(Level.INFO, "Mirror of " + repositoryName + " is up to date with "
+                            + advertised.size() + " refs");
+                    return;
+                }
+            }
+
+            FetchResult result = Git.wrap(mirror).fetch()
+                    .setRemote(config.getFetchUri().toPrivateString())
+                    .setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*"), new RefSpec("+refs/tags/*:refs/tags/*"))
+                    .setRemoveDeletedRefs(true)
+                    .setProgressMonitor(new LoggingProgressMonitor(getLogger(), repositoryName))
+                    .call();
+            checkRefUpdates(result);
+            METRICS.increment("mirrors.fetched");
+
+            Map<String, ObjectId> refs = new TreeMap<>();
+            addRefs(refs, mirror.getRefDatabase().getRefs(R_HEADS).values());
+            addRefs(refs, mirror.getRefDatabase().getRefs(R_TAGS).values());
+            writeSnapshot(snapshotFile, refs);
+        }
+    }
+
+    private Map<String, ObjectId> listRemote(SubtreeConfig config) throws Exception {
+        Map<String, ObjectId> refs = new TreeMap<>();
+        addRefs(refs, Git.lsRemoteRepository()
+                .setRemote(config.getFetchUri().toPrivateString())
+                .setHeads(true)
+                .setTags(true)
+                .call());
+        return refs;
+    }
+
+    private static void addRefs(Map<String, ObjectId> refs, Iterable<Ref> values) {
+        for (Ref ref : values) {
+            if (!ref.isSymbolic() && ref.getObjectId() != null) {
+                refs.put(ref.getName(), ref.getObjectId());
+            }
+        }
+    }
+
+    private static Map<String, ObjectId> readSnapshot(File file) throws IOException {
+        Map<String, ObjectId> refs = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2 && ObjectId.isId(fields[0])) {
+                    refs.put(fields[1], ObjectId.fromString(fields[0]));
+                }
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Replaces the snapshot at once, so that an interrupted update leaves
+     * the old one, which makes the next run fetch again.
+     */
+    private static void writeSnapshot(File file, Map<String, ObjectId> refs) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+                writer.write(ref.getValue().name() + "\t" + ref.getKey() + "\n");
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,197 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Finds all paths that are present in more than one input of a merge, without
+ * stopping at the first one like composing the merged tree does. The entries
+ * of the inputs are read and grouped as {@link TreeComposer} does, level by
+ * level, and only directories present in more than one input are descended
+ * into.
+ * <p>
+ * The overlapping paths below a directory only depend on the trees the inputs
+ * have there, so they are cached per distinct combination of tree ids; the
+ * tags of a branch mostly share all but a few of them. Refs are analyzed
+ * concurrently, each with its own reader.
+ */
+public class OverlapAnalyzer {
+
+    private final Repository repository;
+
+    private final int threads;
+
+    // Overlapping paths relative to the directory, by the sorted tree ids of the inputs there
+    private final Map<List<ObjectId>, List<String>> cache = new ConcurrentHashMap<>();
+
+    public OverlapAnalyzer(Repository repository, int threads) {
+        this.repository = repository;
+        this.threads = threads;
+    }
+
+    /**
+     * @param refs
+     *            the original object of each input by the name of the merged
+     *            ref, as {@link RefIndex#resolve(String, String) resolved}
+     * @return overlapping paths of the refs that have any, by ref name
+     */
+    public Map<String, List<String>> analyze(Map<String, Map<SubtreeConfig, ObjectId>> refs) throws IOException {
+        Map<String, List<String>> result = new ConcurrentHashMap<>();
+        if (refs.isEmpty()) {
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, refs.size())));
+        try {
+            Map<String, Future<?>> analyses = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<SubtreeConfig, ObjectId>> ref : refs.entrySet()) {
+                analyses.put(ref.getKey(), executor.submit(() -> {
+                    List<String> overlaps = findOverlaps(ref.getValue());
+                    if (!overlaps.isEmpty()) {
+                        result.put(ref.getKey(), overlaps);
+                    }
+                    return null;
+                }));
+            }
+            for (Map.Entry<String, Future<?>> analysis : analyses.entrySet()) {
+                try {
+                    analysis.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Analyzing " + analysis.getKey() + " failed due to " + e.getCause(),
+                            e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while analyzing " + analysis.getKey(), e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * @return overlapping paths of the merge of the inputs, in the order of
+     *         the merged tree
+     */
+    public List<String> findOverlaps(Map<SubtreeConfig, ObjectId> originals) throws IOException {
+        if (originals.size() < 2) {
+            return Collections.emptyList();
+        }
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk revWalk = new RevWalk(reader)) {
+            List<TreeComposer.Source> roots = new ArrayList<>();
+            for (Map.Entry<SubtreeConfig, ObjectId> original : originals.entrySet()) {
+                RevObject object = revWalk.peel(revWalk.parseAny(original.getValue()));
+                if (!(object instanceof RevCommit)) {
+                    throw new IllegalStateException(original.getKey().getRemoteName() + " "
+                            + original.getValue().name() + " does not point to a commit, but to " + object);
+                }
+                roots.add(TreeComposer.source(((RevCommit) object).getTree().copy(),
+                        original.getKey().getSubtreeDirectory()));
+            }
+            METRICS.increment("overlap.refs");
+            return analyze(reader, roots);
+        }
+    }
+
+    /**
+     * Writes a line per overlapping path with the number of refs it affects
+     * and their names, separated by tabs and sorted by path.
+     *
+     * @param overlaps
+     *            as returned by {@link #analyze(Map)}
+     */
+    public static void writeReport(File file, Map<String, List<String>> overlaps) throws IOException {
+        Map<String, Set<String>> refsByPath = new TreeMap<>();
+        for (Map.Entry<String, List<String>> ref : overlaps.entrySet()) {
+            for (String path : ref.getValue()) {
+                refsByPath.computeIfAbsent(path, p -> new TreeSet<>()).add(ref.getKey());
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Set<String>> path : refsByPath.entrySet()) {
+                writer.write(path.getKey() + "\t" + path.getValue().size() + "\t"
+                        + String.join(" ", path.getValue()) + "\n");
+            }
+        }
+    }
+
+    private List<String> analyze(ObjectReader reader, List<TreeComposer.Source> sources) throws IOException {
+        List<ObjectId> key = new ArrayList<>(sources.size());
+        for (TreeComposer.Source source : sources) {
+            if (source.getTreeId() == null) {
+                key = null;
+                break;
+            }
+            key.add(source.getTreeId());
+        }
+        if (key != null) {
+            Collections.sort(key);
+            List<String> cached = cache.get(key);
+            if (cached != null) {
+                METRICS.increment("overlap.cacheHits");
+                return cached;
+            }
+        }
+
+        // Grouped like TreeComposer does, a file and a directory of the same name don't overlap
+        List<TreeComposer.Entry> entries = new ArrayList<>();
+        for (TreeComposer.Source source : sources) {
+            source.readEntries(reader, entries);
+        }
+        Collections.sort(entries);
+        List<String> overlaps = new ArrayList<>();
+        int count = entries.size();
+        int i = 0;
+        while (i < count) {
+            TreeComposer.Entry first = entries.get(i);
+            int end = i + 1;
+            while (end < count && first.compareTo(entries.get(end)) == 0) {
+                end++;
+            }
+            if (end - i > 1 && first.isTree()) {
+                List<TreeComposer.Source> children = new ArrayList<>(end - i);
+                for (int j = i; j < end; j++) {
+                    children.add(entries.get(j).getSubtree());
+                }
+                for (String path : analyze(reader, children)) {
+                    overlaps.add(first.getName() + "/" + path);
+                }
+            } else if (end - i > 1) {
+                overlaps.add(first.getName());
+            }
+            i = end;
+        }
+        List<String> result = overlaps.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(overlaps);
+        if (key != null) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+}
@@ -1,23 +1,22 @@
 package org.nibor.git_merge_repos.merger;
 
-import org.eclipse.jgit.api.DescribeCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.RefNotFoundException;
-import org.eclipse.jgit.errors.IncorrectObjectTypeException;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevObject;
-import org.eclipse.jgit.revwalk.RevTag;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.transport.RefSpec;
+import org.nibor.git_merge_repos.vo.MergeOptions;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 import org.nibor.git_merge_repos.vo.TagInfo;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import static org.nibor.git_merge_repos.log.LoggerUtil.PREPARE_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+import static org.nibor.git_merge_repos.util.FileUtil.loadMap;
 import static org.nibor.git_merge_repos.util.FileUtil.saveMap;
 
 /**
@@ -25,87 +24,105 @@ import static org.nibor.git_merge_repos.util.FileUtil.saveMap;
  */
 public class ParentTagCollector extends RepoMerger {
 
-    private final GITCli gitCli;
-
-    public ParentTagCollector(String outputRepositoryPath, List<SubtreeConfig> subtreeConfigs) throws IOException {
-        super(outputRepositoryPath, subtreeConfigs);
-        gitCli = new GITCli(repository.getDirectory());
+    public ParentTagCollector(String outputRepositoryPath, List<SubtreeConfig> subtreeConfigs,
+                              MergeOptions options) throws IOException {
+        super(outputRepositoryPath, subtreeConfigs, options);
     }
 
     public void collect() throws IOException, GitAPIException {
-        fetch();
-        Collection<String> branches = getRefSet(HEADS);
-        Collection<String> tags = getRefSet(TAGS);
-        Map<String, TreeSet<String>> tagsOfBranch = groupTagsUnderBranch(branches, tags);
-        loadParentTagOfFirstTagOnEachBranch(tagsOfBranch);
-    }
-
-    private void fetch() throws GitAPIException {
-        for (SubtreeConfig config : subtreeConfigs) {
-            RefSpec branchesSpec = new RefSpec("refs/heads/*:refs/heads/original/" + config.getRemoteName() + "/*");
-            RefSpec tagsSpec = new RefSpec("refs/tags/*:refs/tags/original/" + config.getRemoteName() + "/*");
-            git.fetch().setRemote(config.getFetchUri().toPrivateString()).setRefSpecs(branchesSpec, tagsSpec).call();
+        fetch(PREPARE_LOG);
+        RefIndex refIndex = buildRefIndex();
+        TagIndex tagIndex = groupTagsUnderBranch(refIndex.getBranchNames(), refIndex.getTagNames());
+        try (MergeSession session = new MergeSession(repository, refIndex, options)) {
+            METRICS.time("describe", () -> loadParentTagOfFirstTagOnEachBranch(tagIndex,
+                    new ParentTagFinder(session)));
+            session.logMetrics(PREPARE_LOG);
         }
     }
 
-    private void loadParentTagOfFirstTagOnEachBranch(Map<String, TreeSet<String>> tagsOfBranch) {
+    private void loadParentTagOfFirstTagOnEachBranch(TagIndex tagIndex, ParentTagFinder parentTagFinder) {
+        // Tags merged by an earlier run keep their parent, as their merged history is not rewritten
         Map<String, String> tagParentInfo = new TreeMap<>();
-        tagsOfBranch.values().forEach(s -> s.stream().findFirst().ifPresent(tag -> loadParentTag(tagParentInfo, tag)));
-        log(Level.INFO, "Parent tag information " + tagParentInfo);
-        saveMap(tagParentInfo);
-    }
+        if (options.isIncremental()) {
+            tagParentInfo.putAll(loadMap());
+        }
+        List<String> firstTags = new ArrayList<>();
+        for (String branch : tagIndex.getBranches()) {
+            String tag = tagIndex.getFirstTag(branch);
+            if (tag != null && !tagParentInfo.containsKey(tag)) {
+                firstTags.add(tag);
+            }
+        }
 
-    private void loadParentTag(Map<String, String> tagParentInfo, String tag) {
-        PREPARE_LOG.info("Finding parent tag of " + tag);
-        List<TagInfo> parentTagSet = new ArrayList<>();
+        Set<String> repositoryNames = new LinkedHashSet<>();
         for (SubtreeConfig config : subtreeConfigs) {
             if (!config.getRemoteName().equals("na-birt")) {
-                String parentTag = null;
-                String tagFullPath = TAGS + config.getRemoteName() + "/" + tag;
-                try {
-                    DescribeCommand describeCommand = git.describe();
-                    describeCommand.setTarget(resolveRefs(tagFullPath));
-                    parentTag = describeCommand.call();
-                } catch (RefNotFoundException e) {
-                    log(Level.SEVERE, e.getMessage());
-                } catch (IncorrectObjectTypeException e) {
-                    parentTag = gitCli.describe(tagFullPath);
-                } catch (Exception e) {
-                    log(Level.SEVERE, "Exception while executing loadParentTag on  " + config.getRemoteName() + ". Exception: " + e.getMessage());
+                repositoryNames.add(config.getRemoteName());
+            }
+        }
+        Map<String, Map<String, TagInfo>> parentTagsByRepository = findParentTags(parentTagFinder,
+                repositoryNames, firstTags);
+
+        for (String tag : firstTags) {
+            PREPARE_LOG.info("Finding parent tag of " + tag);
+            // In the order of the configs, so that ties are resolved the same way on every run
+            List<TagInfo> parentTagSet = new ArrayList<>();
+            for (String repositoryName : repositoryNames) {
+                TagInfo parentTag = parentTagsByRepository.getOrDefault(repositoryName, Collections.emptyMap()).get(tag);
+                if (parentTag != null) {
+                    parentTagSet.add(parentTag);
                 }
-                if (parentTag != null)
-                    parentTagSet.add(new TagInfo(trim(parentTag), findTime(parentTag), config.getRemoteName()));
             }
+            tagParentInfo.put(tag, TagInfo.findLatestTag(tag, parentTagSet));
         }
-        tagParentInfo.put(tag, TagInfo.findLatestTag(tag, parentTagSet));
+        log(Level.INFO, "Parent tag information " + tagParentInfo);
+        saveMap(tagParentInfo);
     }
 
-    private Date findTime(String tagName) {
+    /**
+     * Searches the repositories concurrently, each with its own walk.
+     */
+    private Map<String, Map<String, TagInfo>> findParentTags(ParentTagFinder parentTagFinder,
+                                                            Collection<String> repositoryNames,
+                                                            List<String> tags) {
+        Map<String, Map<String, TagInfo>> result = new ConcurrentHashMap<>();
+        if (repositoryNames.isEmpty()) {
+            return result;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(options.getPrepareThreads(), repositoryNames.size()));
         try {
-            ObjectId objectId = repository.resolve("refs/tags/" + tagName);
-            RevWalk revWalk = new RevWalk(repository);
-            RevObject revObject = revWalk.parseAny(objectId);
-
-            if (revObject instanceof RevCommit) {
-                return ((RevCommit) revObject).getCommitterIdent().getWhen();
-            } else if (revObject instanceof RevTag) {
-                return ((RevTag) revObject).getTaggerIdent().getWhen();
+            Map<String, Future<?>> searches = new LinkedHashMap<>();
+            for (String repositoryName : repositoryNames) {
+                searches.put(repositoryName, executor.submit(() -> {
+                    long repositoryStart = System.currentTimeMillis();
+                    result.put(repositoryName, parentTagFinder.find(repositoryName, tags));
+                    METRICS.addTime("describe." + repositoryName, System.currentTimeMillis() - repositoryStart);
+                    return null;
+                }));
+            }
+            for (Map.Entry<String, Future<?>> entry : searches.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    log(Level.SEVERE, "Exception while finding parent tags on " + entry.getKey() + ". Exception: "
+                            + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log(Level.SEVERE, "Interrupted while finding parent tags on " + entry.getKey());
+                    break;
+                }
             }
-        } catch (Exception e) {
-            log(Level.SEVERE, "Unable to collect time of " + tagName + " due to " + e.getMessage());
+        } finally {
+            executor.shutdownNow();
         }
-        return null;
+        log(Level.INFO, "Searched " + repositoryNames.size() + " repositories for parent tags in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return result;
     }
 
     private void log(Level severe, String msg) {
         PREPARE_LOG.log(severe, msg);
     }
-
-    private String trim(String parentTag) {
-        return parentTag.substring(parentTag.lastIndexOf("/") + 1, parentTag.length());
-    }
-
-    private ObjectId resolveRefs(String tagName) throws IOException {
-        return repository.resolve(tagName);
-    }
-}
\ No newline at end of file
+}
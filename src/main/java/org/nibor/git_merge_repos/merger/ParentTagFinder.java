@@ -0,0 +1,224 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.nibor.git_merge_repos.vo.TagInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import static org.nibor.git_merge_repos.log.LoggerUtil.PREPARE_LOG;
+import static org.nibor.git_merge_repos.merger.RepoMerger.TAGS;
+
+/**
+ * Finds the nearest tag in the history of tags of one input repository, like
+ * <code>git describe</code> does for a single commit, but for many tags with
+ * one walk: the commits reachable from the queried tags are visited parents
+ * first, and each is labeled with the tag closest to it (fewest commits
+ * away, the latest tag if there are several).
+ * <p>
+ * Each call uses its own reader, so different repositories can be searched
+ * concurrently.
+ */
+public class ParentTagFinder {
+
+    private final MergeSession session;
+
+    public ParentTagFinder(MergeSession session) {
+        this.session = session;
+    }
+
+    /**
+     * @return for each of the tags present in the repository, the nearest
+     *         other tag on its history; tags without one are left out
+     */
+    public Map<String, TagInfo> find(String repositoryName, Collection<String> tags) throws IOException {
+        Map<String, TagInfo> result = new HashMap<>();
+        try (ObjectReader reader = session.newReader();
+             RevWalk tagWalk = new RevWalk(reader);
+             LabelWalk walk = new LabelWalk(reader)) {
+            Map<String, Tag> allTags = new HashMap<>();
+            for (Map.Entry<String, ObjectId> entry : session.getRefIndex().resolveAll(TAGS, repositoryName).entrySet()) {
+                Tag tag = peel(tagWalk, walk, repositoryName, entry.getKey(), entry.getValue());
+                if (tag != null) {
+                    tag.commit.tags.add(tag);
+                    allTags.put(tag.name, tag);
+                }
+            }
+
+            List<Tag> queries = new ArrayList<>();
+            for (String name : tags) {
+                Tag tag = allTags.get(name);
+                if (tag != null) {
+                    queries.add(tag);
+                    walk.markStart(tag.commit);
+                }
+            }
+            if (queries.isEmpty()) {
+                return result;
+            }
+
+            walk.sort(RevSort.TOPO);
+            walk.sort(RevSort.REVERSE, true);
+            LabelCommit commit;
+            while ((commit = (LabelCommit) walk.next()) != null) {
+                commit.label();
+            }
+
+            for (Tag query : queries) {
+                Label label = query.commit.labelOfHistory(query);
+                if (label != null) {
+                    Tag parent = label.tag;
+                    result.put(query.name, new TagInfo(parent.name, parent.getDate(), repositoryName));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Tag peel(RevWalk tagWalk, LabelWalk walk, String repositoryName, String name, ObjectId objectId) {
+        try {
+            ObjectId peeled = session.getRefIndex().getPeeled(TAGS, repositoryName, name);
+            long taggerTime = -1;
+            if (peeled == null || !peeled.equals(objectId)) {
+                RevObject object = tagWalk.parseAny(objectId);
+                if (object instanceof RevTag) {
+                    RevTag revTag = (RevTag) object;
+                    if (revTag.getTaggerIdent() != null) {
+                        taggerTime = revTag.getTaggerIdent().getWhen().getTime();
+                    }
+                    object = tagWalk.peel(revTag);
+                }
+                if (!(object instanceof RevCommit)) {
+                    return null;
+                }
+                peeled = object;
+            }
+            return new Tag(name, (LabelCommit) walk.lookupCommit(peeled), taggerTime);
+        } catch (IOException e) {
+            PREPARE_LOG.log(Level.SEVERE, "Unable to read tag " + name + " of " + repositoryName
+                    + " due to " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static class LabelWalk extends RevWalk {
+
+        LabelWalk(ObjectReader reader) {
+            super(reader);
+            setRetainBody(false);
+        }
+
+        @Override
+        protected RevCommit createCommit(AnyObjectId id) {
+            return new LabelCommit(id);
+        }
+    }
+
+    private static class LabelCommit extends RevCommit {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Tag> tags = new ArrayList<>(1);
+
+        private Label label;
+
+        LabelCommit(AnyObjectId id) {
+            super(id);
+        }
+
+        /**
+         * Labels the commit with the nearest of its own tags and the labels of
+         * its parents, which must have been labeled before.
+         */
+        void label() {
+            label = labelOfHistory(null);
+        }
+
+        /**
+         * @param excluded
+         *            tag of this commit that should not be used as label
+         */
+        Label labelOfHistory(Tag excluded) {
+            Label nearest = null;
+            for (Tag tag : tags) {
+                if (tag != excluded) {
+                    nearest = Label.nearer(nearest, new Label(tag, 0));
+                }
+            }
+            if (nearest != null) {
+                return nearest;
+            }
+            for (RevCommit parent : getParents()) {
+                Label parentLabel = ((LabelCommit) parent).label;
+                if (parentLabel != null) {
+                    nearest = Label.nearer(nearest, new Label(parentLabel.tag, parentLabel.depth + 1));
+                }
+            }
+            return nearest;
+        }
+    }
+
+    private static class Tag {
+
+        private final String name;
+
+        private final LabelCommit commit;
+
+        // Time of an annotated tag, -1 for lightweight tags which use the commit time
+        private final long taggerTime;
+
+        Tag(String name, LabelCommit commit, long taggerTime) {
+            this.name = name;
+            this.commit = commit;
+            this.taggerTime = taggerTime;
+        }
+
+        long getTime() {
+            return taggerTime >= 0 ? taggerTime : commit.getCommitTime() * 1000L;
+        }
+
+        Date getDate() {
+            return new Date(getTime());
+        }
+    }
+
+    private static class Label {
+
+        private final Tag tag;
+
+        private final int depth;
+
+        Label(Tag tag, int depth) {
+            this.tag = tag;
+            this.depth = depth;
+        }
+
+        static Label nearer(Label a, Label b) {
+            if (a == null) {
+                return b;
+            }
+            if (a.depth != b.depth) {
+                return a.depth < b.depth ? a : b;
+            }
+            long aTime = a.tag.getTime();
+            long bTime = b.tag.getTime();
+            if (aTime != bTime) {
+                return aTime > bTime ? a : b;
+            }
+            return a.tag.name.compareTo(b.tag.name) <= 0 ? a : b;
+        }
+    }
+}
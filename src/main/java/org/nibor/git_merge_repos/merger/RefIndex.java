@@ -0,0 +1,244 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.HEADS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.TAGS;
+
+/**
+ * Snapshot of the fetched <code>refs/heads/original/*</code> and
+ * <code>refs/tags/original/*</code> refs, read once after fetching, so that
+ * merging doesn't have to look up every ref of every repository in the ref
+ * database. Ids are kept in one array per ref type, with a row per ref name and
+ * a column per input repository.
+ * <p>
+ * Tags created by the merge are registered with their commit as they are
+ * written, so that they can be used as parents of later tags.
+ */
+public class RefIndex {
+
+    private final List<SubtreeConfig> subtreeConfigs;
+
+    private final int[] columnOfConfig;
+
+    private final Table branches;
+
+    private final Table tags;
+
+    private final Map<String, ObjectId> mergedTagCommits = new ConcurrentHashMap<>();
+
+    private RefIndex(List<SubtreeConfig> subtreeConfigs) {
+        this.subtreeConfigs = subtreeConfigs;
+        this.columnOfConfig = new int[subtreeConfigs.size()];
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < subtreeConfigs.size(); i++) {
+            String repositoryName = subtreeConfigs.get(i).getRemoteName();
+            Integer column = columns.get(repositoryName);
+            if (column == null) {
+                column = columns.size();
+                columns.put(repositoryName, column);
+            }
+            columnOfConfig[i] = column;
+        }
+        this.branches = new Table(columns);
+        this.tags = new Table(columns);
+    }
+
+    public static RefIndex build(Repository repository, List<SubtreeConfig> subtreeConfigs) throws IOException {
+        return build(repository, subtreeConfigs, repository.getRefDatabase().getRefs(HEADS),
+                repository.getRefDatabase().getRefs(TAGS));
+    }
+
+    /**
+     * Builds the index from original refs known up front, e.g. from a
+     * {@link MergePlan}; only the tags created by earlier merges are read.
+     *
+     * @param originalBranches
+     *            refs by name relative to {@link RepoMerger#HEADS}, i.e.
+     *            <code>&lt;repo&gt;/&lt;name&gt;</code>
+     * @param originalTags
+     *            refs by name relative to {@link RepoMerger#TAGS}
+     */
+    public static RefIndex build(Repository repository, List<SubtreeConfig> subtreeConfigs,
+                                 Map<String, Ref> originalBranches, Map<String, Ref> originalTags)
+            throws IOException {
+        RefIndex index = new RefIndex(subtreeConfigs);
+        index.branches.addAll(originalBranches);
+        index.tags.addAll(originalTags);
+        for (Ref ref : repository.getRefDatabase().getRefs(R_TAGS).values()) {
+            if (!ref.getName().startsWith(TAGS)) {
+                Ref peeled = ref.isPeeled() ? ref : repository.peel(ref);
+                ObjectId commitId = peeled.getPeeledObjectId() != null ? peeled.getPeeledObjectId() : ref.getObjectId();
+                index.mergedTagCommits.put(ref.getName().substring(R_TAGS.length()), commitId);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return names of the fetched branches of all repositories, sorted
+     */
+    public Collection<String> getBranchNames() {
+        return new TreeSet<>(branches.rows.keySet());
+    }
+
+    /**
+     * @return names of the fetched tags of all repositories, sorted
+     */
+    public Collection<String> getTagNames() {
+        return new TreeSet<>(tags.rows.keySet());
+    }
+
+    /**
+     * @param refPrefix
+     *            {@link RepoMerger#HEADS} or {@link RepoMerger#TAGS}
+     * @return the object of the ref in each repository that has it, in the
+     *         order of the configs
+     */
+    public Map<SubtreeConfig, ObjectId> resolve(String refPrefix, String name) {
+        Table table = table(refPrefix);
+        Map<SubtreeConfig, ObjectId> result = new LinkedHashMap<>();
+        int row = table.row(name);
+        if (row >= 0) {
+            for (int i = 0; i < subtreeConfigs.size(); i++) {
+                ObjectId objectId = table.ids[table.index(row, columnOfConfig[i])];
+                if (objectId != null) {
+                    result.put(subtreeConfigs.get(i), objectId);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the object of the ref in the repository, or <code>null</code>
+     */
+    public ObjectId resolve(String refPrefix, String repositoryName, String name) {
+        Table table = table(refPrefix);
+        int row = table.row(name);
+        Integer column = table.columns.get(repositoryName);
+        return row < 0 || column == null ? null : table.ids[table.index(row, column)];
+    }
+
+    /**
+     * @return name and object of every ref of the repository
+     */
+    public Map<String, ObjectId> resolveAll(String refPrefix, String repositoryName) {
+        Table table = table(refPrefix);
+        Map<String, ObjectId> result = new HashMap<>();
+        Integer column = table.columns.get(repositoryName);
+        if (column != null) {
+            for (Map.Entry<String, Integer> row : table.rows.entrySet()) {
+                ObjectId objectId = table.ids[table.index(row.getValue(), column)];
+                if (objectId != null) {
+                    result.put(row.getKey(), objectId);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the commit the ref in the repository points to if it is known
+     *         without parsing the object (i.e. the ref was peeled when it was
+     *         read), otherwise <code>null</code>
+     */
+    public ObjectId getPeeled(String refPrefix, String repositoryName, String name) {
+        Table table = table(refPrefix);
+        int row = table.row(name);
+        Integer column = table.columns.get(repositoryName);
+        return row < 0 || column == null ? null : table.peeledIds[table.index(row, column)];
+    }
+
+    public void registerMergedTag(String tagName, ObjectId commitId) {
+        mergedTagCommits.put(tagName, commitId);
+    }
+
+    /**
+     * @return the commit of a tag written by the merge, or <code>null</code>
+     *         if it doesn't exist
+     */
+    public ObjectId getMergedTagCommit(String tagName) {
+        return mergedTagCommits.get(tagName);
+    }
+
+    private Table table(String refPrefix) {
+        if (HEADS.equals(refPrefix)) {
+            return branches;
+        } else if (TAGS.equals(refPrefix)) {
+            return tags;
+        }
+        throw new IllegalArgumentException("Unknown ref prefix " + refPrefix);
+    }
+
+    private static class Table {
+
+        private final Map<String, Integer> columns;
+
+        private final int columnCount;
+
+        private final Map<String, Integer> rows = new HashMap<>();
+
+        private ObjectId[] ids;
+
+        private ObjectId[] peeledIds;
+
+        Table(Map<String, Integer> columns) {
+            this.columns = columns;
+            this.columnCount = columns.size();
+            this.ids = new ObjectId[16 * columnCount];
+            this.peeledIds = new ObjectId[16 * columnCount];
+        }
+
+        /**
+         * @param refs
+         *            refs relative to the prefix, i.e. with names like
+         *            <code>&lt;repo&gt;/&lt;name&gt;</code>
+         */
+        void addAll(Map<String, Ref> refs) {
+            for (Map.Entry<String, Ref> entry : refs.entrySet()) {
+                String[] repositoryAndName = entry.getKey().split("/", 2);
+                Integer column = columns.get(repositoryAndName[0]);
+                if (column == null || repositoryAndName.length < 2) {
+                    continue;
+                }
+                Integer row = rows.get(repositoryAndName[1]);
+                if (row == null) {
+                    row = rows.size();
+                    rows.put(repositoryAndName[1], row);
+                    if (ids.length < rows.size() * columnCount) {
+                        ids = Arrays.copyOf(ids, ids.length * 2);
+                        peeledIds = Arrays.copyOf(peeledIds, peeledIds.length * 2);
+                    }
+                }
+                Ref ref = entry.getValue();
+                ids[index(row, column)] = ref.getObjectId();
+                peeledIds[index(row, column)] = ref.isPeeled() && ref.getPeeledObjectId() != null
+                        ? ref.getPeeledObjectId() : (ref.isPeeled() ? ref.getObjectId() : null);
+            }
+        }
+
+        int row(String name) {
+            Integer row = rows.get(name);
+            return row != null ? row : -1;
+        }
+
+        int index(int row, int column) {
+            return row * columnCount + column;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Collects all ref creations, updates and deletions of a merge run and
+ * applies them at the end in one atomic {@link BatchRefUpdate}, which for a
+ * file repository writes them straight into <code>packed-refs</code>.
+ */
+public class RefTransaction {
+
+    private final Repository repository;
+
+    private final Map<String, ReceiveCommand> commands = new LinkedHashMap<>();
+
+    public RefTransaction(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Queues creation of a ref that must not exist yet.
+     */
+    public synchronized void create(String refName, ObjectId newId) throws IOException {
+        if (commands.containsKey(refName) || repository.exactRef(refName) != null) {
+            throw new IllegalStateException("Creating ref " + refName + " for " + newId.name()
+                    + " failed, it already exists");
+        }
+        commands.put(refName, new ReceiveCommand(ObjectId.zeroId(), newId, refName));
+    }
+
+    /**
+     * Queues creation of a ref or update of an existing one, regardless of its
+     * current value.
+     */
+    public synchronized void update(String refName, ObjectId newId) throws IOException {
+        ReceiveCommand queued = commands.get(refName);
+        ObjectId oldId;
+        if (queued != null) {
+            oldId = queued.getOldId();
+        } else {
+            Ref ref = repository.exactRef(refName);
+            oldId = ref != null ? ref.getObjectId() : ObjectId.zeroId();
+        }
+        commands.put(refName, new ReceiveCommand(oldId, newId, refName));
+    }
+
+    public synchronized void delete(Ref ref) {
+        commands.put(ref.getName(), new ReceiveCommand(ref.getObjectId(), ObjectId.zeroId(), ref.getName()));
+    }
+
+    public synchronized int size() {
+        return commands.size();
+    }
+
+    /**
+     * Applies all queued commands atomically. All objects they point to must
+     * be readable through the repository, i.e. flushed.
+     */
+    public synchronized void commit() throws IOException {
+        if (commands.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        BatchRefUpdate batchRefUpdate = repository.getRefDatabase().newBatchUpdate();
+        batchRefUpdate.setAtomic(true);
+        batchRefUpdate.setAllowNonFastForwards(true);
+        batchRefUpdate.disableRefLog();
+        batchRefUpdate.addCommand(commands.values());
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            batchRefUpdate.execute(revWalk, NullProgressMonitor.INSTANCE);
+        }
+
+        List<String> failed = new ArrayList<>();
+        for (ReceiveCommand command : batchRefUpdate.getCommands()) {
+            if (command.getResult() != ReceiveCommand.Result.OK) {
+                failed.add(command.getRefName() + " (" + command.getResult()
+                        + (command.getMessage() != null ? ": " + command.getMessage() : "") + ")");
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new IOException("Updating " + commands.size() + " refs failed, none were changed: " + failed);
+        }
+        METRICS.add("refs.updated", commands.size());
+        MERGE_LOG.log(Level.INFO, "Updated " + commands.size() + " refs in "
+                + (System.currentTimeMillis() - start) + " ms");
+        commands.clear();
+    }
+}
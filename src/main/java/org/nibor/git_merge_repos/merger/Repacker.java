@@ -0,0 +1,87 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.GC.RepoStatistics;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.nibor.git_merge_repos.log.LoggingProgressMonitor;
+import org.nibor.git_merge_repos.log.Metrics;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Rewrites the output repository after merging into one pack of the objects
+ * reachable from its refs, with reachability bitmaps so that clones don't
+ * have to walk the whole history. Deltas and compressed data of the fetched
+ * and merged packs are reused, and the old packs and unreachable objects,
+ * e.g. the ones only the deleted original refs pointed to, are removed;
+ * the latter take a second prune, as deleting the old packs leaves them
+ * behind as new loose objects.
+ * <p>
+ * Objects read through <code>objects/info/alternates</code> are packed as
+ * well.
+ */
+public class Repacker {
+
+    private final Repository repository;
+
+    private final Logger logger;
+
+    public Repacker(Repository repository, Logger logger) {
+        this.repository = repository;
+        this.logger = logger;
+    }
+
+    public void repack() throws IOException {
+        if (!(repository instanceof FileRepository)) {
+            throw new IllegalStateException("Repacking needs a repository on disk, not " + repository);
+        }
+        FileRepository fileRepository = (FileRepository) repository;
+        RepoStatistics before = new GC(fileRepository).getStatistics();
+        long start = System.currentTimeMillis();
+        try {
+            PackConfig packConfig = new PackConfig(repository);
+            packConfig.setReuseDeltas(true);
+            packConfig.setReuseObjects(true);
+            packConfig.setBuildBitmaps(true);
+
+            GC gc = new GC(fileRepository);
+            gc.setPackConfig(packConfig);
+            // Nothing else writes to the repository, so the old packs can go right away
+            Date now = new Date();
+            gc.setExpire(now);
+            gc.setPackExpire(now);
+            gc.setProgressMonitor(new LoggingProgressMonitor(logger, "repack"));
+            gc.gc();
+            // Deleting the old packs loosens their unreachable objects after the prune of gc(), with a newer time
+            gc.setExpire(new Date());
+            gc.prune(Collections.emptySet());
+        } catch (ParseException e) {
+            throw new IOException("Repacking failed due to " + e.getMessage(), e);
+        } finally {
+            METRICS.addTime("repack", System.currentTimeMillis() - start);
+        }
+        RepoStatistics after = new GC(fileRepository).getStatistics();
+        long sizeBefore = before.sizeOfPackedObjects + before.sizeOfLooseObjects;
+        long sizeAfter = after.sizeOfPackedObjects + after.sizeOfLooseObjects;
+        METRICS.add("repack.bytesBefore", sizeBefore);
+        METRICS.add("repack.bytesAfter", sizeAfter);
+        logger.log(Level.INFO, "Repacked " + (before.numberOfPackedObjects + before.numberOfLooseObjects)
+                + " objects in " + before.numberOfPackFiles + " packs (" + megabytes(sizeBefore) + " MB) into "
+                + (after.numberOfPackedObjects + after.numberOfLooseObjects) + " objects in "
+                + after.numberOfPackFiles + " packs (" + megabytes(sizeAfter) + " MB) with "
+                + after.numberOfBitmaps + " bitmaps in " + Metrics.formatDuration(System.currentTimeMillis() - start));
+    }
+
+    private static long megabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,155 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TrackingRefUpdate;
+import org.nibor.git_merge_repos.log.LoggingProgressMonitor;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.HEADS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.TAGS;
+
+/**
+ * Fetches the branches and tags of all input repositories into
+ * <code>refs/heads/original/&lt;repo&gt;/*</code> and
+ * <code>refs/tags/original/&lt;repo&gt;/*</code> of the output repository,
+ * several repositories at a time.
+ */
+public class RepoFetcher {
+
+    private static final String LOCAL_HOST = "localhost";
+
+    private final Git git;
+
+    private final Logger logger;
+
+    private final int threads;
+
+    private final int threadsPerHost;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public RepoFetcher(Git git, Logger logger, int threads, int threadsPerHost) {
+        this.git = git;
+        this.logger = logger;
+        this.threads = threads;
+        this.threadsPerHost = threadsPerHost;
+    }
+
+    /**
+     * For subclasses that fetch somewhere else than into a repository given
+     * up front, see {@link #fetchRepository(SubtreeConfig)}.
+     */
+    protected RepoFetcher(Logger logger, int threads, int threadsPerHost) {
+        this(null, logger, threads, threadsPerHost);
+    }
+
+    public void fetch(List<SubtreeConfig> subtreeConfigs) throws IOException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, subtreeConfigs.size()));
+        Map<SubtreeConfig, Future<?>> fetches = new LinkedHashMap<>();
+        try {
+            for (SubtreeConfig config : subtreeConfigs) {
+                fetches.put(config, executor.submit(() -> {
+                    fetch(config);
+                    return null;
+                }));
+            }
+            List<String> failed = new ArrayList<>();
+            for (Map.Entry<SubtreeConfig, Future<?>> entry : fetches.entrySet()) {
+                String repositoryName = entry.getKey().getRemoteName();
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    logger.log(Level.SEVERE, "Fetching " + repositoryName + " from " + entry.getKey().getFetchUri()
+                            + " failed due to " + e.getCause());
+                    failed.add(repositoryName);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while fetching " + repositoryName, e);
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new IOException("Fetching failed for " + failed.size() + " of " + subtreeConfigs.size()
+                        + " repositories: " + failed);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long time = System.currentTimeMillis() - start;
+        METRICS.addTime("fetch", time);
+        logger.log(Level.INFO, "Fetched " + subtreeConfigs.size() + " repositories in " + time + " ms");
+    }
+
+    private void fetch(SubtreeConfig config) throws Exception {
+        String repositoryName = config.getRemoteName();
+        Semaphore permits = hostPermits.computeIfAbsent(hostOf(config), host -> new Semaphore(threadsPerHost));
+        permits.acquire();
+        try {
+            long start = System.currentTimeMillis();
+            logger.log(Level.INFO, "Fetching " + repositoryName + " from " + config.getFetchUri());
+            fetchRepository(config);
+            long time = System.currentTimeMillis() - start;
+            METRICS.addTime("fetch." + repositoryName, time);
+            logger.log(Level.INFO, "Fetched " + repositoryName + " in " + time + " ms");
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Fetches the branches and tags of one repository into the original refs
+     * of the output repository.
+     */
+    protected void fetchRepository(SubtreeConfig config) throws Exception {
+        String repositoryName = config.getRemoteName();
+        RefSpec branchesSpec = new RefSpec("refs/heads/*:" + HEADS + repositoryName + "/*");
+        RefSpec tagsSpec = new RefSpec("refs/tags/*:" + TAGS + repositoryName + "/*");
+        FetchResult result = git.fetch()
+                .setRemote(config.getFetchUri().toPrivateString())
+                .setRefSpecs(branchesSpec, tagsSpec)
+                .setProgressMonitor(new LoggingProgressMonitor(logger, repositoryName))
+                .call();
+        checkRefUpdates(result);
+    }
+
+    protected static void checkRefUpdates(FetchResult result) throws IOException {
+        for (TrackingRefUpdate update : result.getTrackingRefUpdates()) {
+            switch (update.getResult()) {
+                case LOCK_FAILURE:
+                case IO_FAILURE:
+                case REJECTED:
+                case REJECTED_CURRENT_BRANCH:
+                    throw new IOException("Updating " + update.getLocalName() + " failed with result "
+                            + update.getResult());
+                default:
+                    break;
+            }
+        }
+    }
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private static String hostOf(SubtreeConfig config) {
+        String host = config.getFetchUri().getHost();
+        return host == null ? LOCAL_HOST : host;
+    }
+}
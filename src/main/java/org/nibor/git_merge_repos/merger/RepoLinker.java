@@ -0,0 +1,168 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_TAGS;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.HEADS;
+import static org.nibor.git_merge_repos.merger.RepoMerger.TAGS;
+
+/**
+ * Makes local input repositories available to the output repository without
+ * copying their objects: the object directory of each is added to
+ * <code>objects/info/alternates</code> and its branches and tags are copied
+ * into <code>refs/heads/original/&lt;repo&gt;/*</code> and
+ * <code>refs/tags/original/&lt;repo&gt;/*</code>, like a fetch would.
+ * <p>
+ * The output repository depends on the inputs until it is
+ * {@link #consolidate() consolidated}.
+ */
+public class RepoLinker {
+
+    private final Repository repository;
+
+    private final Logger logger;
+
+    public RepoLinker(Repository repository, Logger logger) {
+        this.repository = repository;
+        this.logger = logger;
+    }
+
+    /**
+     * Links the local repositories among the given ones.
+     *
+     * @return the repositories that are not local and have to be fetched
+     */
+    public List<SubtreeConfig> link(List<SubtreeConfig> subtreeConfigs) throws IOException {
+        long start = System.currentTimeMillis();
+        List<SubtreeConfig> remote = new ArrayList<>();
+        Set<String> alternates = readAlternates();
+        RefTransaction refTransaction = new RefTransaction(repository);
+        int linked = 0;
+        for (SubtreeConfig config : subtreeConfigs) {
+            File gitDirectory = getLocalGitDirectory(config.getFetchUri());
+            if (gitDirectory == null) {
+                logger.log(Level.INFO, "Not a local repository, fetching " + config.getRemoteName() + " from "
+                        + config.getFetchUri());
+                remote.add(config);
+                continue;
+            }
+            try (FileRepository input = new FileRepository(gitDirectory)) {
+                alternates.add(input.getObjectDatabase().getDirectory().getAbsolutePath());
+                String repositoryName = config.getRemoteName();
+                int refs = importRefs(input, R_HEADS, HEADS + repositoryName + "/", refTransaction)
+                        + importRefs(input, R_TAGS, TAGS + repositoryName + "/", refTransaction);
+                logger.log(Level.INFO, "Linked " + repositoryName + " from " + gitDirectory + " with " + refs
+                        + " refs");
+            }
+            linked++;
+        }
+        if (linked > 0) {
+            writeAlternates(alternates);
+            refTransaction.commit();
+        }
+        long time = System.currentTimeMillis() - start;
+        METRICS.addTime("link", time);
+        logger.log(Level.INFO, "Linked " + linked + " repositories in " + time + " ms");
+        return remote;
+    }
+
+    /**
+     * @return git directory of the repository at a path or
+     *         <code>file://</code> URI, <code>null</code> if it is not local
+     */
+    private static File getLocalGitDirectory(URIish uri) {
+        if (uri.getScheme() != null && !"file".equals(uri.getScheme()) || uri.getHost() != null) {
+            return null;
+        }
+        return RepositoryCache.FileKey.resolve(new File(uri.getPath()), FS.DETECTED);
+    }
+
+    /**
+     * Queues the refs of the input under the prefix, and the deletion of refs
+     * under the prefix the input no longer has.
+     *
+     * @return number of refs of the input
+     */
+    private int importRefs(Repository input, String inputPrefix, String prefix, RefTransaction refTransaction)
+            throws IOException {
+        Map<String, Ref> refs = input.getRefDatabase().getRefs(inputPrefix);
+        for (Map.Entry<String, Ref> entry : refs.entrySet()) {
+            Ref ref = entry.getValue();
+            if (!ref.isSymbolic() && ref.getObjectId() != null) {
+                refTransaction.update(prefix + entry.getKey(), ref.getObjectId());
+            }
+        }
+        for (Map.Entry<String, Ref> entry : repository.getRefDatabase().getRefs(prefix).entrySet()) {
+            if (!refs.containsKey(entry.getKey())) {
+                refTransaction.delete(entry.getValue());
+            }
+        }
+        return refs.size();
+    }
+
+    /**
+     * Packs all objects reachable from the refs into the output repository
+     * and removes the alternates, so that it no longer depends on the inputs.
+     */
+    public void consolidate() throws IOException {
+        File alternatesFile = getAlternatesFile();
+        if (!alternatesFile.exists()) {
+            return;
+        }
+        new Repacker(repository, logger).repack();
+        Files.delete(alternatesFile.toPath());
+        repository.getObjectDatabase().close();
+        logger.log(Level.INFO, "Consolidated all objects into " + repository.getDirectory());
+    }
+
+    private Set<String> readAlternates() throws IOException {
+        Set<String> alternates = new LinkedHashSet<>();
+        File file = getAlternatesFile();
+        if (file.exists()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    alternates.add(line.trim());
+                }
+            }
+        }
+        return alternates;
+    }
+
+    private void writeAlternates(Set<String> alternates) throws IOException {
+        File file = getAlternatesFile();
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), alternates, StandardCharsets.UTF_8);
+        // Drops the alternates loaded so far, they are read again on next use
+        repository.getObjectDatabase().close();
+    }
+
+    private File getAlternatesFile() {
+        ObjectDatabase objectDatabase = repository.getObjectDatabase();
+        if (!(objectDatabase instanceof ObjectDirectory)) {
+            throw new IllegalStateException("Linking needs a repository on disk, not " + objectDatabase);
+        }
+        return new File(((ObjectDirectory) objectDatabase).getDirectory(), "info/alternates");
+    }
+}
@@ -4,21 +4,24 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.*;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.transport.RefSpec;
 import org.nibor.git_merge_repos.util.FileUtil;
+import org.nibor.git_merge_repos.vo.MergeOptions;
+import org.nibor.git_merge_repos.vo.MergeOptions.Checkout;
+import org.nibor.git_merge_repos.vo.MergeOptions.InputMode;
 import org.nibor.git_merge_repos.vo.MergedRef;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+import java.util.logging.Logger;
 
 import static org.eclipse.jgit.lib.Constants.R_HEADS;
 import static org.eclipse.jgit.lib.Constants.R_TAGS;
 import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
 
 /**
  * Fetches original repos, merges original branches/tags of different repos and
@@ -36,15 +39,27 @@ public class RepoMerger {
 
     protected final List<SubtreeConfig> subtreeConfigs;
 
-    private Map tagParentInfo;
+    protected final MergeOptions options;
+
+    private Map<String, String> tagParentInfo;
+
+    private MergedRefCollector mergedRefs = new MergedRefCollector();
 
     public RepoMerger(String outputRepositoryPath,
-                      List<SubtreeConfig> subtreeConfigs) throws IOException {
+                      List<SubtreeConfig> subtreeConfigs, MergeOptions options) throws IOException {
         this.subtreeConfigs = subtreeConfigs;
+        this.options = options;
         File file = new File(outputRepositoryPath);
-        repository = new RepositoryBuilder().setWorkTree(file).build();
+        if (options.isBare()) {
+            if (new File(file, Constants.DOT_GIT).exists()) {
+                throw new IllegalStateException("Output " + file + " is a repository with a work tree, not a bare one");
+            }
+            repository = new RepositoryBuilder().setGitDir(file).setBare().build();
+        } else {
+            repository = new RepositoryBuilder().setWorkTree(file).build();
+        }
         if (!repository.getDirectory().exists()) {
-            repository.create();
+            repository.create(options.isBare());
         }
         git = new Git(repository);
     }
@@ -55,125 +70,173 @@ public class RepoMerger {
 
     public void run() throws IOException, GitAPIException {
 
-        fetch();
+        File planFile = options.getPlanFile();
+        MergePlan plan = planFile != null ? loadPlan(planFile) : null;
+
+        fetch(MERGE_LOG);
+
+        RefIndex refIndex;
+        TagIndex tagIndex;
+        List<String> ungroupedTags;
+        if (plan != null) {
+            // Takes the refs, parent tags and grouping as planned
+            MERGE_LOG.log(Level.INFO, "Merging " + plan.getEntries().size() + " refs as planned in " + planFile);
+            tagParentInfo = plan.getTagParentInfo();
+            refIndex = METRICS.time("refIndex", () -> plan.buildRefIndex(repository));
+            tagIndex = plan.getTagIndex();
+            ungroupedTags = plan.getUngroupedTags();
+        } else {
+            loadParentTagInfo();
+            refIndex = buildRefIndex();
+            Collection<String> tags = refIndex.getTagNames();
+            tagIndex = groupTagsUnderBranch(refIndex.getBranchNames(), tags);
+            ungroupedTags = tagIndex.getUngroupedTags(tags);
+        }
 
-        loadParentTagInfo();
+        TreeCache treeCache = new TreeCache(options.getTreeCacheSize());
+        File treeCacheFile = options.getTreeCacheFile();
+        if (treeCacheFile != null) {
+            treeCache.load(treeCacheFile);
+        }
 
-        Collection<String> branches = getRefSet(HEADS);
+        File stateFile = getStateFile();
+        MergeState mergeState;
+        if (options.isIncremental()) {
+            mergeState = MergeState.load(stateFile);
+            mergeState.retainExisting(repository);
+        } else {
+            mergeState = new MergeState();
+        }
+        File journalFile = new File(stateFile.getPath() + ".journal");
+        if (options.isResume()) {
+            mergeState.loadJournal(journalFile);
+        }
 
-        Collection<String> tags = getRefSet(TAGS);
+        try (MergeSession session = new MergeSession(repository, refIndex, mergeState, options)) {
+            mergeState.openJournal(journalFile, options.isResume());
 
-        Map<String, TreeSet<String>> tagsOfBranch = groupTagsUnderBranch(branches, tags);
+            logSevere("Following are the list of tags that incrementing pattern [tag number + 1] cannot be applied.");
+            logSevere(ungroupedTags.toString());
 
-        mergeOlder(tags, tagsOfBranch);
+            MergeScheduler scheduler = new MergeScheduler(subtreeConfigs, session, options.getTreeMode(), treeCache,
+                    tagParentInfo, options.getMergeThreads(), options.getProgressSeconds());
+            METRICS.time("merge", () -> {
+                scheduler.run(ungroupedTags, tagIndex);
+                session.flush();
+            });
+            session.logMetrics(MERGE_LOG);
 
-        mergeNewer(tagsOfBranch);
+            MERGE_LOG.log(Level.INFO, "Merged tree cache: " + treeCache.getHits() + " hits, "
+                    + treeCache.getMisses() + " misses");
+            if (treeCacheFile != null) {
+                treeCache.save(treeCacheFile);
+            }
 
-        deleteOriginalRefs();
+            METRICS.time("refUpdate", () -> {
+                deleteOriginalRefs(session.getRefTransaction());
+                session.getRefTransaction().commit();
+            });
+            METRICS.time("cleanup", () -> {
+                mergeState.save(stateFile);
+                mergeState.closeJournal();
+                Files.delete(journalFile.toPath());
+            });
+            mergedRefs = session.getMergedRefs();
+        } finally {
+            mergeState.closeJournal();
+        }
 
-        resetToBranch();
-    }
+        long resetStart = System.currentTimeMillis();
+        try {
+            resetToBranch();
+        } finally {
+            METRICS.addTime("reset", System.currentTimeMillis() - resetStart);
+        }
 
-    private void fetch() throws GitAPIException {
-        for (SubtreeConfig config : subtreeConfigs) {
-            RefSpec branchesSpec = new RefSpec("refs/heads/*:refs/heads/original/" + config.getRemoteName() + "/*");
-            RefSpec tagsSpec = new RefSpec("refs/tags/*:refs/tags/original/" + config.getRemoteName() + "/*");
-            git.fetch().setRemote(config.getFetchUri().toPrivateString()).setRefSpecs(branchesSpec, tagsSpec).call();
+        if (options.getInputMode() == InputMode.LINK && options.isConsolidate()) {
+            new RepoLinker(repository, MERGE_LOG).consolidate();
+        } else if (options.isRepack()) {
+            new Repacker(repository, MERGE_LOG).repack();
         }
     }
 
-    private void mergeOlder(Collection<String> tags, Map<String, TreeSet<String>> tagsOfBranch) {
-        tags.removeAll(tagsOfBranch.values().stream().flatMap(Collection::stream).collect(Collectors.toList()));
-        logSevere("Following are the list of tags that incrementing pattern [tag number + 1] cannot be applied.");
-        logSevere(tags.toString());
-
-        TagMerger tagMerger = new TagMerger(subtreeConfigs, repository, Collections.emptyMap());
-        tags.forEach(s -> {
-            try {
-                tagMerger.mergeTag(s);
-            } catch (IOException e) {
-                logSevere("Problem in merging tag " + s + " due to " + e.getMessage());
+    /**
+     * @throws IllegalStateException
+     *             if the plan has refs that are not {@link MergePlan#OK}, so
+     *             that nothing gets fetched or merged
+     */
+    private MergePlan loadPlan(File planFile) throws IOException {
+        MergePlan plan = MergePlan.load(planFile, subtreeConfigs);
+        List<MergePlan.Entry> problems = plan.getProblems();
+        if (!problems.isEmpty()) {
+            for (MergePlan.Entry entry : problems) {
+                logSevere("Planned " + (entry.isTag() ? "tag " : "branch ") + entry.getName() + ": "
+                        + entry.getStatus());
             }
-        });
+            throw new IllegalStateException("Plan " + planFile + " has " + problems.size()
+                    + " refs with problems, see merge.log; resolve them and plan again");
+        }
+        return plan;
     }
 
-    private void mergeNewer(Map<String, TreeSet<String>> tagsOfBranch) {
-        TagMerger tagMerger = new TagMerger(subtreeConfigs, repository, tagParentInfo);
-        BranchMerger branchMerger = new BranchMerger(subtreeConfigs, repository);
-
-        for (Map.Entry<String, TreeSet<String>> entry : tagsOfBranch.entrySet()) {
-            String branch = entry.getKey();
-            TreeSet<String> tagsSorted = entry.getValue();
-            try {
-                String latestTag = tagMerger.mergeTags(tagsSorted);
-                branchMerger.mergeBranch(branch, latestTag);
-            } catch (Exception e) {
-                logSevere("Problem in merging tags & branch of " + branch + " due to " + e.getMessage());
-            }
-        }
+    private File getStateFile() {
+        File stateFile = options.getStateFile();
+        return stateFile != null ? stateFile : new File(repository.getDirectory(), "merge-state");
     }
 
-    protected Map<String, TreeSet<String>> groupTagsUnderBranch(Collection<String> branches, Collection<String> tags) throws IOException {
-        Map<String, TreeSet<String>> tagsOfBranch = new TreeMap<>();
-        for (String branch : branches) {
-            tagsOfBranch.put(branch, new TreeSet<>(tagSorter));
-            String regEx = branch + "-[0-9]*$";
-            for (String tag : tags) {
-                if (tag.matches(regEx)) {
-                    tagsOfBranch.get(branch).add(tag);
-                } else if (tag.equals(branch)) {
-                    tagsOfBranch.get(branch).add(tag);
-                }
-            }
+    protected void fetch(Logger logger) throws IOException {
+        List<SubtreeConfig> inputConfigs = subtreeConfigs;
+        File mirrorCache = options.getMirrorCache();
+        if (mirrorCache != null) {
+            inputConfigs = new MirrorCache(mirrorCache, logger, options.getFetchThreads(),
+                    options.getFetchThreadsPerHost()).update(subtreeConfigs);
+        }
+        List<SubtreeConfig> fetchedConfigs = inputConfigs;
+        if (options.getInputMode() == InputMode.LINK) {
+            fetchedConfigs = new RepoLinker(repository, logger).link(inputConfigs);
+        }
+        if (!fetchedConfigs.isEmpty()) {
+            RepoFetcher fetcher = new RepoFetcher(git, logger, options.getFetchThreads(),
+                    options.getFetchThreadsPerHost());
+            fetcher.fetch(fetchedConfigs);
         }
-        return tagsOfBranch;
     }
 
-    private final Comparator<String> tagSorter = (tag1, tag2) -> {
-        int tag1Nr = Integer.parseInt(tag1.substring(tag1.lastIndexOf("-") + 1));
-        int tag2Nr = Integer.parseInt(tag2.substring(tag2.lastIndexOf("-") + 1));
-        return Integer.compare(tag1Nr, tag2Nr);
-    };
-
-    private void deleteOriginalRefs() throws IOException {
-        try (RevWalk revWalk = new RevWalk(repository)) {
-            Collection<Ref> refs = new ArrayList<>();
-            RefDatabase refDatabase = repository.getRefDatabase();
-            Map<String, Ref> originalBranches = refDatabase.getRefs(HEADS);
-            Map<String, Ref> originalTags = refDatabase.getRefs(TAGS);
-            refs.addAll(originalBranches.values());
-            refs.addAll(originalTags.values());
-            for (Ref originalRef : refs) {
-                RefUpdate refUpdate = repository.updateRef(originalRef.getName());
-                refUpdate.setForceUpdate(true);
-                refUpdate.delete(revWalk);
-            }
-        }
+    protected RefIndex buildRefIndex() throws IOException {
+        return METRICS.time("refIndex", () -> RefIndex.build(repository, subtreeConfigs));
+    }
+
+    protected TagIndex groupTagsUnderBranch(Collection<String> branches, Collection<String> tags) {
+        return METRICS.time("grouping", () -> TagIndex.build(branches, tags));
+    }
+
+    private void deleteOriginalRefs(RefTransaction refTransaction) throws IOException {
+        RefDatabase refDatabase = repository.getRefDatabase();
+        Map<String, Ref> originalBranches = refDatabase.getRefs(HEADS);
+        Map<String, Ref> originalTags = refDatabase.getRefs(TAGS);
+        originalBranches.values().forEach(refTransaction::delete);
+        originalTags.values().forEach(refTransaction::delete);
     }
 
+    /**
+     * Checks out master as configured; a bare repository only has HEAD, which
+     * already points to it.
+     */
     private void resetToBranch() throws IOException, GitAPIException {
+        Checkout checkout = options.getCheckout();
+        if (repository.isBare() || checkout == Checkout.SKIP) {
+            return;
+        }
         Ref master = repository.getRef(Constants.R_HEADS + "master");
         if (master != null) {
             Git git = new Git(repository);
-            git.reset().setMode(ResetType.HARD).setRef(master.getName()).call();
-        }
-    }
-
-    protected Collection<String> getRefSet(String prefix) throws IOException {
-        Map<String, Ref> refs = repository.getRefDatabase().getRefs(prefix);
-        TreeSet<String> result = new TreeSet<>();
-        for (String refName : refs.keySet()) {
-            String branch = refName.split("/", 2)[1];
-            result.add(branch);
+            ResetType mode = checkout == Checkout.DEFER ? ResetType.MIXED : ResetType.HARD;
+            git.reset().setMode(mode).setRef(master.getName()).call();
         }
-        return result;
     }
 
     public List<MergedRef> getMergedRefs() {
-        List<MergedRef> mergedRefs = new ArrayList<>();
-        mergedRefs.addAll(TagMerger.getMergedRefs());
-        mergedRefs.addAll(BranchMerger.getMergedRefs());
-        return mergedRefs;
+        return mergedRefs.getMergedRefs();
     }
 
     private void logSevere(String msg) {
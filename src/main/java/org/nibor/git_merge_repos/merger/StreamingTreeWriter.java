@@ -0,0 +1,161 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Writes the merged tree of the inputs while walking all their files in
+ * order. Every directory that is open along the current path has a
+ * {@link TreeFormatter}; when the walk leaves a directory its tree is
+ * inserted and appended to the parent's. Memory therefore depends on the
+ * depth of the tree rather than on the number of files, and files are
+ * appended straight from the walk's buffers without copying.
+ */
+public class StreamingTreeWriter {
+
+    private final ObjectReader reader;
+
+    private final ObjectInserter inserter;
+
+    // Path of the innermost open directory, levels end at dirEnds (exclusive)
+    private byte[] dirPath = new byte[256];
+
+    private int[] dirEnds = new int[16];
+
+    private TreeFormatter[] formatters = new TreeFormatter[16];
+
+    private int depth;
+
+    public StreamingTreeWriter(ObjectReader reader, ObjectInserter inserter) {
+        this.reader = reader;
+        this.inserter = inserter;
+    }
+
+    /**
+     * @param subtreeDirectories
+     *            directory each tree is placed in, <code>"."</code> for the
+     *            root
+     * @throws IllegalStateException
+     *             if a file is present in more than one input
+     */
+    public ObjectId write(List<String> subtreeDirectories, List<ObjectId> treeIds, String commitMessage)
+            throws IOException {
+        depth = 0;
+        dirEnds[0] = 0;
+        formatters[0] = new TreeFormatter();
+        try (TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.setRecursive(true);
+            for (int i = 0; i < treeIds.size(); i++) {
+                String directory = subtreeDirectories.get(i);
+                if (".".equals(directory)) {
+                    treeWalk.addTree(treeIds.get(i));
+                } else {
+                    byte[] prefix = directory.getBytes(RawParseUtils.UTF8_CHARSET);
+                    treeWalk.addTree(new CanonicalTreeParser(prefix, reader, treeIds.get(i)));
+                }
+            }
+            int treeCount = treeWalk.getTreeCount();
+            long files = 0;
+            while (treeWalk.next()) {
+                files++;
+                AbstractTreeIterator iterator = null;
+                for (int i = 0; i < treeCount; i++) {
+                    AbstractTreeIterator it = treeWalk.getTree(i, AbstractTreeIterator.class);
+                    if (it != null) {
+                        if (iterator != null) {
+                            throw new IllegalStateException(
+                                    SubtreeMerger.getOverlapMessage(it.getEntryPathString(), commitMessage));
+                        }
+                        iterator = it;
+                    }
+                }
+                append(iterator);
+            }
+            METRICS.add("files.walked", files);
+        }
+        while (depth > 0) {
+            closeDirectory();
+        }
+        return formatters[0].insertTo(inserter);
+    }
+
+    private void append(AbstractTreeIterator iterator) throws IOException {
+        byte[] path = iterator.getEntryPathBuffer();
+        int length = iterator.getEntryPathLength();
+        int nameStart = length;
+        while (nameStart > 0 && path[nameStart - 1] != '/') {
+            nameStart--;
+        }
+
+        while (depth > 0 && !isOpen(path, nameStart, depth)) {
+            closeDirectory();
+        }
+        int start = dirEnds[depth] == 0 ? 0 : dirEnds[depth] + 1;
+        for (int i = start; i < nameStart; i++) {
+            if (path[i] == '/') {
+                openDirectory(path, i);
+            }
+        }
+
+        formatters[depth].append(path, nameStart, length - nameStart,
+                FileMode.fromBits(iterator.getEntryRawMode()), iterator.idBuffer(), iterator.idOffset());
+    }
+
+    /**
+     * @return whether the directory at the level is the same as (or a parent
+     *         of) the directory of the path, whose file name starts at
+     *         <code>nameStart</code>
+     */
+    private boolean isOpen(byte[] path, int nameStart, int level) {
+        int end = dirEnds[level];
+        if (end >= nameStart || path[end] != '/') {
+            return false;
+        }
+        for (int i = end - 1; i >= 0; i--) {
+            if (path[i] != dirPath[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens the directory ending at <code>end</code> of the path, which has
+     * to be a child of the innermost open directory.
+     */
+    private void openDirectory(byte[] path, int end) {
+        if (end > dirPath.length) {
+            dirPath = Arrays.copyOf(dirPath, Math.max(end, dirPath.length * 2));
+        }
+        System.arraycopy(path, 0, dirPath, 0, end);
+        depth++;
+        if (depth == dirEnds.length) {
+            dirEnds = Arrays.copyOf(dirEnds, depth * 2);
+            formatters = Arrays.copyOf(formatters, depth * 2);
+        }
+        dirEnds[depth] = end;
+        formatters[depth] = new TreeFormatter();
+    }
+
+    private void closeDirectory() throws IOException {
+        ObjectId treeId = formatters[depth].insertTo(inserter);
+        formatters[depth] = null;
+        int end = dirEnds[depth];
+        depth--;
+        int nameStart = dirEnds[depth] == 0 ? 0 : dirEnds[depth] + 1;
+        formatters[depth].append(dirPath, nameStart, end - nameStart, FileMode.TREE, treeId);
+    }
+}
@@ -2,36 +2,46 @@ package org.nibor.git_merge_repos.merger;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import org.eclipse.jgit.dircache.DirCache;
-import org.eclipse.jgit.dircache.DirCacheBuilder;
-import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.util.RawParseUtils;
+import org.nibor.git_merge_repos.vo.MergeOptions.TreeMode;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
 /**
  * Merges the passed commit trees into one tree, adjusting directory structure
  * if necessary (depends on options from user).
  */
 public class SubtreeMerger {
 
-    private final Repository repository;
+    private final MergeSession session;
+
+    private final TreeMode treeMode;
+
+    private final TreeCache treeCache;
+
+    // Inputs and result of the previous merge, which the next one is patched from
+    private Map<SubtreeConfig, TreeComposer.Source> previousSources;
 
-    public SubtreeMerger(Repository repository) {
-        this.repository = repository;
+    private ObjectId previousTree;
+
+    public SubtreeMerger(MergeSession session, TreeMode treeMode, TreeCache treeCache) {
+        this.session = session;
+        this.treeMode = treeMode;
+        this.treeCache = treeCache;
     }
 
     public ObjectId createMergeCommit(Map<SubtreeConfig, RevCommit> parentCommits, String message)
@@ -39,31 +49,25 @@ public class SubtreeMerger {
         return createMergeCommit(parentCommits, null, message);
     }
 
-    public ObjectId createMergeCommit(Map<SubtreeConfig, RevCommit> parentCommits, RevCommit parentTag, String message) throws IOException {
+    public ObjectId createMergeCommit(Map<SubtreeConfig, RevCommit> parentCommits, ObjectId parentTag, String message) throws IOException {
         PersonIdent latestIdent = getLatestPersonIdent(parentCommits.values());
-        DirCache treeDirCache = createTreeDirCache(parentCommits, message);
-        ArrayList<RevCommit> parentIds = new ArrayList<>();
+        ObjectId treeId = createTree(parentCommits, message);
+        List<ObjectId> parentIds = new ArrayList<>();
         if(parentTag != null){
             parentIds.add(parentTag);
         }
         parentIds.addAll(parentCommits.values());
 
-        try (ObjectInserter inserter = repository.newObjectInserter()) {
-            ObjectId treeId = treeDirCache.writeTree(inserter);
-
-            PersonIdent repositoryUser = new PersonIdent(repository);
-            PersonIdent ident = new PersonIdent(repositoryUser, latestIdent.getWhen().getTime(),
-                    latestIdent.getTimeZoneOffset());
-            CommitBuilder commitBuilder = new CommitBuilder();
-            commitBuilder.setTreeId(treeId);
-            commitBuilder.setAuthor(ident);
-            commitBuilder.setCommitter(ident);
-            commitBuilder.setMessage(message);
-            commitBuilder.setParentIds(parentIds);
-            ObjectId mergeCommit = inserter.insert(commitBuilder);
-            inserter.flush();
-            return mergeCommit;
-        }
+        PersonIdent repositoryUser = new PersonIdent(session.getRepository());
+        PersonIdent ident = new PersonIdent(repositoryUser, latestIdent.getWhen().getTime(),
+                latestIdent.getTimeZoneOffset());
+        CommitBuilder commitBuilder = new CommitBuilder();
+        commitBuilder.setTreeId(treeId);
+        commitBuilder.setAuthor(ident);
+        commitBuilder.setCommitter(ident);
+        commitBuilder.setMessage(message);
+        commitBuilder.setParentIds(parentIds);
+        return session.getInserter().insert(commitBuilder);
     }
 
     private PersonIdent getLatestPersonIdent(Collection<RevCommit> commits) {
@@ -78,72 +82,104 @@ public class SubtreeMerger {
         return latest;
     }
 
-    private DirCache createTreeDirCache(Map<SubtreeConfig, RevCommit> parentCommits,
-                                        String commitMessage) throws IOException {
-
-        try (TreeWalk treeWalk = new TreeWalk(repository)) {
-            treeWalk.setRecursive(true);
-            addTrees(parentCommits, treeWalk);
-            DirCacheBuilder builder = DirCache.newInCore().builder();
-            while (treeWalk.next()) {
-                AbstractTreeIterator iterator = getSingleTreeIterator(treeWalk, commitMessage);
-                if (iterator == null) {
-                    throw new IllegalStateException(
-                            "Tree walker did not return a single tree (should not happen): "
-                                    + treeWalk.getPathString());
-                }
-                byte[] path = Arrays.copyOf(iterator.getEntryPathBuffer(),
-                        iterator.getEntryPathLength());
-                DirCacheEntry entry = new DirCacheEntry(path);
-                entry.setFileMode(iterator.getEntryFileMode());
-                entry.setObjectId(iterator.getEntryObjectId());
-                builder.add(entry);
+    private ObjectId createTree(Map<SubtreeConfig, RevCommit> parentCommits, String commitMessage)
+            throws IOException {
+        List<String> directories = new ArrayList<>();
+        List<ObjectId> treeIds = new ArrayList<>();
+        for (Map.Entry<SubtreeConfig, RevCommit> entry : parentCommits.entrySet()) {
+            directories.add(entry.getKey().getSubtreeDirectory());
+            treeIds.add(entry.getValue().getTree().copy());
+        }
+        TreeCache.Key key = TreeCache.key(directories, treeIds);
+
+        ObjectInserter inserter = session.getInserter();
+        ObjectReader reader = session.getReader();
+        ObjectId treeId = treeCache.get(key);
+        if (treeId != null && !reader.has(treeId)) {
+            treeCache.invalidate(key);
+            treeId = null;
+        }
+        if (treeId != null) {
+            METRICS.increment("trees.cached");
+            if (treeMode == TreeMode.SHALLOW) {
+                rememberSources(parentCommits, treeId);
             }
-            builder.finish();
-            return builder.getDirCache();
+            return treeId;
         }
-    }
 
-    private void addTrees(Map<SubtreeConfig, RevCommit> parentCommits, TreeWalk treeWalk)
-            throws IOException {
-        for (Map.Entry<SubtreeConfig, RevCommit> entry : parentCommits.entrySet()) {
-            String directory = entry.getKey().getSubtreeDirectory();
-            RevCommit parentCommit = entry.getValue();
-            if (".".equals(directory)) {
-                addTree(parentCommit, treeWalk);
+        long start = System.nanoTime();
+        if (treeMode == TreeMode.STREAMING) {
+            treeId = new StreamingTreeWriter(reader, inserter).write(directories, treeIds, commitMessage);
+        } else {
+            TreeComposer composer = new TreeComposer(reader, inserter, treeMode == TreeMode.RECURSIVE,
+                    session.getTreePool(), session::newReader);
+            if (treeMode == TreeMode.RECURSIVE) {
+                treeId = composer.compose(getSources(parentCommits), commitMessage);
             } else {
-                byte[] prefix = directory.getBytes(RawParseUtils.UTF8_CHARSET);
-                CanonicalTreeParser treeParser = new CanonicalTreeParser(prefix,
-                        treeWalk.getObjectReader(), parentCommit.getTree());
-                treeWalk.addTree(treeParser);
+                treeId = composeTree(parentCommits, commitMessage, composer);
             }
         }
+        METRICS.recordSince("tree.build", start);
+        treeCache.put(key, treeId);
+        return treeId;
     }
 
-    private void addTree(RevCommit parentCommit, TreeWalk treeWalk) throws IOException {
-        treeWalk.addTree(parentCommit.getTree());
+    /**
+     * Patches the tree of the previous merge if there is one, which is
+     * cheapest for consecutive tags where only a few inputs changed, and
+     * composes the tree from scratch otherwise.
+     */
+    private ObjectId composeTree(Map<SubtreeConfig, RevCommit> parentCommits, String commitMessage,
+                                 TreeComposer composer) throws IOException {
+        ObjectId treeId = null;
+        if (previousTree != null) {
+            Set<SubtreeConfig> configs = new LinkedHashSet<>(previousSources.keySet());
+            configs.addAll(parentCommits.keySet());
+            List<TreeComposer.Source> oldSources = new ArrayList<>();
+            List<TreeComposer.Source> newSources = new ArrayList<>();
+            for (SubtreeConfig config : configs) {
+                oldSources.add(previousSources.get(config));
+                RevCommit commit = parentCommits.get(config);
+                newSources.add(commit != null ? TreeComposer.source(commit.getTree(), config.getSubtreeDirectory()) : null);
+            }
+            try {
+                treeId = composer.patch(previousTree, oldSources, newSources, commitMessage);
+            } catch (IllegalStateException e) {
+                // Maybe a file moved from one input to another, compose to be sure
+                treeId = null;
+            }
+        }
+        if (treeId == null) {
+            treeId = composer.compose(getSources(parentCommits), commitMessage);
+        }
+        rememberSources(parentCommits, treeId);
+        return treeId;
     }
 
-    private AbstractTreeIterator getSingleTreeIterator(TreeWalk treeWalk, String commitMessage) {
-        AbstractTreeIterator result = null;
-        int treeCount = treeWalk.getTreeCount();
-        for (int i = 0; i < treeCount; i++) {
-            AbstractTreeIterator it = treeWalk.getTree(i, AbstractTreeIterator.class);
-            if (it != null) {
-                if (result != null) {
-                    String msg = "Trees of repositories overlap in path '"
-                            + it.getEntryPathString()
-                            + "'. "
-                            + "We can only merge non-overlapping trees, "
-                            + "so make sure the repositories have been prepared for that. "
-                            + "One possible way is to process each repository to move the root to a subdirectory first.\n"
-                            + "Current commit:\n" + commitMessage;
-                    throw new IllegalStateException(msg);
-                } else {
-                    result = it;
-                }
-            }
+    private void rememberSources(Map<SubtreeConfig, RevCommit> parentCommits, ObjectId treeId) {
+        previousSources = new LinkedHashMap<>();
+        for (Map.Entry<SubtreeConfig, RevCommit> entry : parentCommits.entrySet()) {
+            previousSources.put(entry.getKey(), TreeComposer.source(entry.getValue().getTree().copy(),
+                    entry.getKey().getSubtreeDirectory()));
         }
-        return result;
+        previousTree = treeId;
+    }
+
+    private List<TreeComposer.Source> getSources(Map<SubtreeConfig, RevCommit> parentCommits) {
+        List<TreeComposer.Source> sources = new ArrayList<>();
+        for (Map.Entry<SubtreeConfig, RevCommit> entry : parentCommits.entrySet()) {
+            sources.add(TreeComposer.source(entry.getValue().getTree(), entry.getKey().getSubtreeDirectory()));
+        }
+        return sources;
+    }
+
+    static String getOverlapMessage(String path, String commitMessage) {
+        return "Trees of repositories overlap in path '"
+                + path
+                + "'. "
+                + "We can only merge non-overlapping trees, "
+                + "so make sure the repositories have been prepared for that. "
+                + "One possible way is to process each repository to move the root to a subdirectory first.\n"
+                + "Current commit:\n" + commitMessage;
     }
 }
@@ -0,0 +1,216 @@
+package org.nibor.git_merge_repos.merger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Groups tags under the branch they were created on, following the convention
+ * that tags of branch <code>x</code> are named <code>x-1, x-2, x-3...</code>.
+ * A tag with the same name as a branch belongs to that branch as well.
+ * <p>
+ * Each tag name is parsed only once into its base name and sequence number,
+ * and the tags of a branch are kept ordered by that number. If two tags of a
+ * branch have the same number, only the first one is kept.
+ */
+public class TagIndex {
+
+    private final Collection<String> branches;
+
+    private final Map<String, Chain> chains = new HashMap<>();
+
+    // Branch of each grouped tag, the first one in branch order if there are several
+    private final Map<String, String> branchOfTag = new HashMap<>();
+
+    private TagIndex(Collection<String> branches) {
+        this.branches = branches;
+    }
+
+    public static TagIndex build(Collection<String> branches, Collection<String> tags) {
+        TagIndex index = new TagIndex(new TreeSet<>(branches));
+        Set<String> branchNames = new HashSet<>(branches);
+        for (String tag : tags) {
+            int dash = tag.lastIndexOf('-');
+            int sequence = dash >= 0 ? parseSequence(tag, dash + 1) : -1;
+            if (sequence >= 0) {
+                String base = tag.substring(0, dash);
+                if (branchNames.contains(base)) {
+                    index.chain(base).add(sequence, tag);
+                }
+            }
+            if (branchNames.contains(tag)) {
+                index.chain(tag).add(Math.max(sequence, 0), tag);
+            }
+        }
+        for (Chain chain : index.chains.values()) {
+            chain.sort();
+        }
+        index.indexBranchOfTags();
+        return index;
+    }
+
+    /**
+     * @param tagsByBranch
+     *            the tags of each branch in merge order, as grouped before
+     */
+    public static TagIndex of(Map<String, List<String>> tagsByBranch) {
+        TagIndex index = new TagIndex(new TreeSet<>(tagsByBranch.keySet()));
+        for (Map.Entry<String, List<String>> branch : tagsByBranch.entrySet()) {
+            Chain chain = index.chain(branch.getKey());
+            for (String tag : branch.getValue()) {
+                chain.add(chain.size, tag);
+            }
+        }
+        index.indexBranchOfTags();
+        return index;
+    }
+
+    private void indexBranchOfTags() {
+        for (String branch : branches) {
+            for (String tag : getTags(branch)) {
+                branchOfTag.putIfAbsent(tag, branch);
+            }
+        }
+    }
+
+    /**
+     * @return the number after <code>start</code>, or -1 if the rest of the
+     *         name is not a (non-empty) number
+     */
+    private static int parseSequence(String tag, int start) {
+        int length = tag.length();
+        if (start == length || length - start > 9) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = start; i < length; i++) {
+            char c = tag.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private Chain chain(String branch) {
+        return chains.computeIfAbsent(branch, b -> new Chain());
+    }
+
+    /**
+     * @return all branches in name order, including the ones without tags
+     */
+    public Collection<String> getBranches() {
+        return branches;
+    }
+
+    /**
+     * @return the tags of the branch, ordered by their sequence number
+     */
+    public List<String> getTags(String branch) {
+        Chain chain = chains.get(branch);
+        return chain == null ? Collections.emptyList() : Arrays.asList(chain.names).subList(0, chain.size);
+    }
+
+    /**
+     * @return the tag with the lowest sequence number of the branch, or
+     *         <code>null</code> if the branch has no tags
+     */
+    public String getFirstTag(String branch) {
+        Chain chain = chains.get(branch);
+        return chain == null || chain.size == 0 ? null : chain.names[0];
+    }
+
+    /**
+     * Tells whether a tag is merged before the tags of a branch, i.e. whether
+     * it can be the parent tag of the branch's first tag. The merge takes the
+     * tags that don't belong to a branch first, then the tags of each branch
+     * in branch order.
+     *
+     * @return <code>false</code> if the tag belongs to the branch or to a
+     *         later one, <code>true</code> otherwise, also for tags that are
+     *         not merged at all
+     */
+    public boolean isMergedBefore(String tag, String branch) {
+        String branchOfParent = branchOfTag.get(tag);
+        return branchOfParent == null || branchOfParent.compareTo(branch) < 0;
+    }
+
+    /**
+     * @return all tags that belong to a branch
+     */
+    public Set<String> getGroupedTags() {
+        Set<String> result = new HashSet<>();
+        for (Chain chain : chains.values()) {
+            result.addAll(Arrays.asList(chain.names).subList(0, chain.size));
+        }
+        return result;
+    }
+
+    /**
+     * @return tags that do not follow the naming convention of any branch, in
+     *         the order of the given tags
+     */
+    public List<String> getUngroupedTags(Collection<String> tags) {
+        Set<String> grouped = getGroupedTags();
+        List<String> result = new ArrayList<>();
+        for (String tag : tags) {
+            if (!grouped.contains(tag)) {
+                result.add(tag);
+            }
+        }
+        return result;
+    }
+
+    private static class Chain {
+
+        private int[] sequences = new int[4];
+
+        private String[] names = new String[4];
+
+        private int size;
+
+        void add(int sequence, String name) {
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            sequences[size] = sequence;
+            names[size] = name;
+            size++;
+        }
+
+        /**
+         * Sorts by sequence number, keeping only the first added tag of equal
+         * sequence numbers.
+         */
+        void sort() {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) sequences[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] sortedSequences = new int[size];
+            String[] sortedNames = new String[size];
+            int count = 0;
+            for (long key : keys) {
+                int sequence = (int) (key >>> 32);
+                if (count == 0 || sortedSequences[count - 1] != sequence) {
+                    sortedSequences[count] = sequence;
+                    sortedNames[count] = names[(int) key];
+                    count++;
+                }
+            }
+            sequences = sortedSequences;
+            names = sortedNames;
+            size = count;
+        }
+    }
+}
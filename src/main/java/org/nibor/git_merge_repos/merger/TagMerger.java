@@ -4,29 +4,39 @@ import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.nibor.git_merge_repos.vo.MergedRef;
 import org.nibor.git_merge_repos.vo.SubtreeConfig;
 
 import java.io.IOException;
 import java.util.*;
 
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
 /**
  * Created by sankarge on 12/21/17.
  */
 public class TagMerger extends AbstractMerger {
 
-    public static final List<MergedRef> mergedRefs = new ArrayList<>();
-
     private final Map<String, String> tagParentInfo;
 
-    public TagMerger(List<SubtreeConfig> subtreeConfigs, Repository repository, Map<String, String> tagParentInfo) {
-        super(subtreeConfigs, repository);
+    public TagMerger(List<SubtreeConfig> subtreeConfigs, MergeSession session, SubtreeMerger subtreeMerger,
+                     Map<String, String> tagParentInfo) {
+        super(subtreeConfigs, session, subtreeMerger);
         this.tagParentInfo = tagParentInfo;
     }
 
     public String mergeTags(Collection<String> tags) throws IOException {
-        String previousTag = null;
+        return mergeTags(tags, null);
+    }
+
+    /**
+     * @param previousTag
+     *            merged tag the first tag should be based on, or
+     *            <code>null</code> to use its parent tag from
+     *            <code>parentTag.properties</code>
+     * @return the last merged tag, <code>previousTag</code> if there are none
+     */
+    public String mergeTags(Collection<String> tags, String previousTag) throws IOException {
         for (String tag : tags) {
             previousTag = mergeTag(tag, previousTag);
         }
@@ -39,57 +49,56 @@ public class TagMerger extends AbstractMerger {
     }
 
     public String mergeTag(String tagName, String parentTag) throws IOException {
+        long start = System.nanoTime();
         Map<SubtreeConfig, ObjectId> resolvedRefs = resolveRefs(
-                "refs/tags/original/", tagName);
+                RepoMerger.TAGS, tagName);
 
         // Annotated tag that should be used for creating the merged tag, null
         // if only lightweight tags exist
         RevTag referenceTag = null;
         Map<SubtreeConfig, RevCommit> parentCommits = new LinkedHashMap<>();
 
-        try (RevWalk revWalk = new RevWalk(repository)) {
-            for (Map.Entry<SubtreeConfig, ObjectId> entry : resolvedRefs
-                    .entrySet()) {
-                SubtreeConfig config = entry.getKey();
-                ObjectId objectId = entry.getValue();
-                RevCommit commit;
-                RevObject revObject = revWalk.parseAny(objectId);
-                if (revObject instanceof RevCommit) {
-                    // Lightweight tag (ref points directly to commit)
-                    commit = (RevCommit) revObject;
-                } else if (revObject instanceof RevTag) {
-                    // Annotated tag (ref points to tag object with message,
-                    // which in turn points to commit)
-                    RevTag tag = (RevTag) revObject;
-                    RevObject peeled = revWalk.peel(tag);
-                    if (peeled instanceof RevCommit) {
-                        commit = (RevCommit) peeled;
-
-                        if (referenceTag == null) {
+        for (Map.Entry<SubtreeConfig, ObjectId> entry : resolvedRefs
+                .entrySet()) {
+            SubtreeConfig config = entry.getKey();
+            ObjectId objectId = entry.getValue();
+            RevCommit commit;
+            RevObject revObject = session.parseAny(objectId);
+            if (revObject instanceof RevCommit) {
+                // Lightweight tag (ref points directly to commit)
+                commit = (RevCommit) revObject;
+            } else if (revObject instanceof RevTag) {
+                // Annotated tag (ref points to tag object with message,
+                // which in turn points to commit)
+                RevTag tag = (RevTag) revObject;
+                RevObject peeled = session.peel(tag);
+                if (peeled instanceof RevCommit) {
+                    commit = (RevCommit) peeled;
+
+                    if (referenceTag == null) {
+                        referenceTag = tag;
+                    } else {
+                        // We already have one, but use the last (latest)
+                        // tag as reference
+                        PersonIdent referenceTagger = referenceTag.getTaggerIdent();
+                        PersonIdent thisTagger = tag.getTaggerIdent();
+                        if (thisTagger != null && referenceTagger != null
+                                && thisTagger.getWhen().after(referenceTagger.getWhen())) {
                             referenceTag = tag;
-                        } else {
-                            // We already have one, but use the last (latest)
-                            // tag as reference
-                            PersonIdent referenceTagger = referenceTag.getTaggerIdent();
-                            PersonIdent thisTagger = tag.getTaggerIdent();
-                            if (thisTagger != null && referenceTagger != null
-                                    && thisTagger.getWhen().after(referenceTagger.getWhen())) {
-                                referenceTag = tag;
-                            }
                         }
-                    } else {
-                        String msg = "Peeled tag " + tag.getTagName()
-                                + " does not point to a commit, but to the following object: "
-                                + peeled;
-                        throw new IllegalStateException(msg);
                     }
                 } else {
-                    throw new IllegalArgumentException("Object with ID "
-                            + objectId + " has invalid type for a tag: "
-                            + revObject);
+                    String msg = "Peeled tag " + tag.getTagName()
+                            + " does not point to a commit, but to the following object: "
+                            + peeled;
+                    throw new IllegalStateException(msg);
                 }
-                parentCommits.put(config, commit);
+            } else {
+                throw new IllegalArgumentException("Object with ID "
+                        + objectId + " has invalid type for a tag: "
+                        + revObject);
             }
+            parentCommits.put(config, commit);
         }
 
         if (parentTag == null) {
@@ -98,13 +107,17 @@ public class TagMerger extends AbstractMerger {
 
         MergedRef mergedRef = getMergedRef("tag", tagName, parentCommits.keySet());
         ObjectId mergeCommit;
+        String parentRef = null;
 
         if (parentTag == null) {
-            mergeCommit = new SubtreeMerger(repository).createMergeCommit(parentCommits,
+            mergeCommit = subtreeMerger.createMergeCommit(parentCommits,
                     mergedRef.getMessage());
         } else {
-            RevCommit prevTagCommit = getCommitOfTag(parentTag);
-            mergeCommit = new SubtreeMerger(repository).createMergeCommit(parentCommits, prevTagCommit,
+            ObjectId prevTagCommit = getCommitOfTag(parentTag);
+            if (prevTagCommit != null) {
+                parentRef = Constants.R_TAGS + parentTag;
+            }
+            mergeCommit = subtreeMerger.createMergeCommit(parentCommits, prevTagCommit,
                     mergedRef.getMessage());
         }
 
@@ -115,30 +128,25 @@ public class TagMerger extends AbstractMerger {
             tagBuilder.setMessage(referenceTag.getFullMessage());
             tagBuilder.setTagger(referenceTag.getTaggerIdent());
             tagBuilder.setObjectId(mergeCommit, Constants.OBJ_COMMIT);
-            try (ObjectInserter inserter = repository.newObjectInserter()) {
-                objectToReference = inserter.insert(tagBuilder);
-                inserter.flush();
-            }
+            objectToReference = session.getInserter().insert(tagBuilder);
         } else {
             objectToReference = mergeCommit;
         }
 
-        String ref = Constants.R_TAGS + tagName;
-        RefUpdate refUpdate = repository.updateRef(ref);
-        refUpdate.setExpectedOldObjectId(ObjectId.zeroId());
-        refUpdate.setNewObjectId(objectToReference);
-        RefUpdate.Result result = refUpdate.update();
-        if (result != RefUpdate.Result.NEW) {
-            throw new IllegalStateException("Creating tag ref " + ref + " for "
-                    + objectToReference + " failed with result " + result);
+        String refName = Constants.R_TAGS + tagName;
+        if (session.getMergeState().wasMerged(refName)) {
+            // Moved since the last run
+            session.getRefTransaction().update(refName, objectToReference);
+        } else {
+            session.getRefTransaction().create(refName, objectToReference);
         }
+        session.recordMerged(refName, objectToReference, resolvedRefs, parentRef);
+        session.getRefIndex().registerMergedTag(tagName, mergeCommit);
 
         parentTag = tagName;
-        mergedRefs.add(mergedRef);
+        session.getMergedRefs().addTag(mergedRef);
+        METRICS.increment("tags.merged");
+        METRICS.recordSince("tag.merge", start);
         return parentTag;
     }
-
-    public static List<MergedRef> getMergedRefs() {
-        return mergedRefs;
-    }
 }
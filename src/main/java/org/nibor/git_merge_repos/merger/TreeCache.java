@@ -0,0 +1,161 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import static org.nibor.git_merge_repos.log.LoggerUtil.MERGE_LOG;
+
+/**
+ * Remembers the merged tree written for a combination of input trees, so that
+ * tags with the same inputs (e.g. re-tags of the same commits) don't compose
+ * their tree again. Least recently used entries are evicted once the cache
+ * holds the maximum number of entries.
+ * <p>
+ * The cache can be saved to a file and loaded by a later run; it must only be
+ * saved once the trees it refers to have been flushed.
+ */
+public class TreeCache {
+
+    private final Map<Key, ObjectId> entries;
+
+    private long hits;
+
+    private long misses;
+
+    public TreeCache(final int maxEntries) {
+        entries = new LinkedHashMap<Key, ObjectId>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ObjectId> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static Key key(List<String> subtreeDirectories, List<ObjectId> treeIds) {
+        return new Key(subtreeDirectories.toArray(new String[subtreeDirectories.size()]),
+                treeIds.toArray(new ObjectId[treeIds.size()]));
+    }
+
+    /**
+     * @return the merged tree of the inputs, or <code>null</code> if it is not
+     *         known
+     */
+    public synchronized ObjectId get(Key key) {
+        ObjectId treeId = entries.get(key);
+        if (treeId != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return treeId;
+    }
+
+    public synchronized void put(Key key, ObjectId treeId) {
+        entries.put(key, treeId);
+    }
+
+    /**
+     * Removes an entry that turned out to be unusable, e.g. because its tree
+     * is not in the repository, and counts the lookup as a miss.
+     */
+    public synchronized void invalidate(Key key) {
+        if (entries.remove(key) != null) {
+            hits--;
+            misses++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void load(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                int inputs = (fields.length - 1) / 2;
+                String[] directories = new String[inputs];
+                ObjectId[] treeIds = new ObjectId[inputs];
+                for (int i = 0; i < inputs; i++) {
+                    directories[i] = fields[1 + 2 * i];
+                    treeIds[i] = ObjectId.fromString(fields[2 + 2 * i]);
+                }
+                entries.put(new Key(directories, treeIds), ObjectId.fromString(fields[0]));
+            }
+            MERGE_LOG.log(Level.INFO, "Loaded " + entries.size() + " merged trees from " + file);
+        } catch (IOException | IllegalArgumentException e) {
+            MERGE_LOG.log(Level.SEVERE, "Unable to read tree cache " + file + " due to " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    public synchronized void save(File file) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Key, ObjectId> entry : entries.entrySet()) {
+                writer.write(entry.getValue().name());
+                Key key = entry.getKey();
+                for (int i = 0; i < key.treeIds.length; i++) {
+                    writer.write('\t');
+                    writer.write(key.directories[i]);
+                    writer.write('\t');
+                    writer.write(key.treeIds[i].name());
+                }
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            MERGE_LOG.log(Level.SEVERE, "Unable to write tree cache " + file + " due to " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ordered list of (subtree directory, input tree id).
+     */
+    public static class Key {
+
+        private final String[] directories;
+
+        private final ObjectId[] treeIds;
+
+        private final int hash;
+
+        private Key(String[] directories, ObjectId[] treeIds) {
+            this.directories = directories;
+            this.treeIds = treeIds;
+            this.hash = 31 * Arrays.hashCode(directories) + Arrays.hashCode(treeIds);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && Arrays.equals(treeIds, other.treeIds)
+                    && Arrays.equals(directories, other.directories);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
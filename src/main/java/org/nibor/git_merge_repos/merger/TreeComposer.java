@@ -0,0 +1,498 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.Paths;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import static org.nibor.git_merge_repos.log.Metrics.METRICS;
+
+/**
+ * Composes the trees of the input repositories into one tree without walking
+ * every file. Only directories that are present in more than one input are
+ * descended into; every other entry, including whole subtrees, is taken over
+ * by its existing object id. In recursive mode every directory is descended
+ * into and written anew, leaving out empty ones.
+ * <p>
+ * If a pool is given, the top-level directories that have to be descended
+ * into are composed concurrently. Each task reads with its own reader and
+ * only computes the ids of its trees; they are inserted by the calling thread
+ * once all tasks are done.
+ */
+public class TreeComposer {
+
+    private final ObjectReader reader;
+
+    private final ObjectInserter inserter;
+
+    private final boolean recursive;
+
+    private final ForkJoinPool pool;
+
+    private final Supplier<ObjectReader> readers;
+
+    public TreeComposer(ObjectReader reader, ObjectInserter inserter) {
+        this(reader, inserter, false, null, null);
+    }
+
+    /**
+     * @param pool
+     *            pool to compose top-level directories on, <code>null</code>
+     *            to compose in the calling thread
+     * @param readers
+     *            creates the readers of the tasks, which close them
+     */
+    public TreeComposer(ObjectReader reader, ObjectInserter inserter, boolean recursive, ForkJoinPool pool,
+                        Supplier<ObjectReader> readers) {
+        this.reader = reader;
+        this.inserter = inserter;
+        this.recursive = recursive;
+        this.pool = pool;
+        this.readers = readers;
+    }
+
+    /**
+     * @param treeId
+     *            root tree of an input commit
+     * @param subtreeDirectory
+     *            directory the tree should be placed in, <code>"."</code> for
+     *            the root
+     */
+    public static Source source(ObjectId treeId, String subtreeDirectory) {
+        Source source = new Source(null, treeId, null);
+        if (".".equals(subtreeDirectory)) {
+            return source;
+        }
+        String[] segments = subtreeDirectory.split("/");
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (!segments[i].isEmpty()) {
+                source = new Source(segments[i].getBytes(RawParseUtils.UTF8_CHARSET), null, source);
+            }
+        }
+        return source;
+    }
+
+    /**
+     * @return the id of the written tree containing all entries of the sources
+     * @throws IllegalStateException
+     *             if a file is present in more than one source
+     */
+    public ObjectId compose(List<Source> sources, String commitMessage) throws IOException {
+        ObjectId treeId;
+        if (sources.size() == 1 && !recursive) {
+            treeId = write(sources.get(0));
+        } else if (pool != null) {
+            treeId = composeConcurrently(sources, commitMessage);
+        } else {
+            treeId = compose(sources, "", commitMessage);
+        }
+        return treeId != null ? treeId : inserter.insert(new TreeFormatter());
+    }
+
+    /**
+     * @return the id of the tree, or <code>null</code> if it is empty and
+     *         empty trees are left out
+     */
+    private ObjectId compose(List<Source> sources, String path, String commitMessage) throws IOException {
+        if (sources.size() == 1 && !recursive) {
+            return write(sources.get(0));
+        }
+        List<Entry> entries = group(sources, path, commitMessage);
+        for (Entry entry : entries) {
+            if (entry.id == null) {
+                entry.id = compose(entry.sources, entry.path, commitMessage);
+            }
+        }
+        return format(entries);
+    }
+
+    /**
+     * Reads the entries of all sources and merges entries with the same name
+     * into one; directories that have to be descended into are returned
+     * without id, with the sources to compose them from.
+     */
+    private List<Entry> group(List<Source> sources, String path, String commitMessage) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Source source : sources) {
+            source.readEntries(reader, entries);
+        }
+        Collections.sort(entries);
+
+        List<Entry> result = new ArrayList<>();
+        int count = entries.size();
+        int i = 0;
+        while (i < count) {
+            Entry first = entries.get(i);
+            int end = i + 1;
+            while (end < count && first.compareTo(entries.get(end)) == 0) {
+                end++;
+            }
+            if (end - i == 1 && !(recursive && first.isTree())) {
+                result.add(new Entry(first.name, first.mode, first.getId(this), null));
+            } else if (first.isTree()) {
+                List<Source> children = new ArrayList<>(end - i);
+                for (int j = i; j < end; j++) {
+                    children.add(entries.get(j).subtree);
+                }
+                Entry entry = new Entry(first.name, FileMode.TYPE_TREE, null, null);
+                entry.sources = children;
+                entry.path = path + RawParseUtils.decode(first.name) + "/";
+                result.add(entry);
+            } else {
+                String entryPath = path + RawParseUtils.decode(first.name);
+                throw new IllegalStateException(SubtreeMerger.getOverlapMessage(entryPath, commitMessage));
+            }
+            i = end;
+        }
+        return result;
+    }
+
+    /**
+     * @return the id of the tree with the entries that have an id, or
+     *         <code>null</code> if it is empty and empty trees are left out
+     */
+    private ObjectId format(List<Entry> entries) throws IOException {
+        TreeFormatter formatter = new TreeFormatter();
+        boolean empty = true;
+        for (Entry entry : entries) {
+            if (entry.id != null) {
+                formatter.append(entry.name, entry.getFileMode(), entry.id);
+                empty = false;
+            }
+        }
+        return empty && recursive ? null : inserter.insert(formatter);
+    }
+
+    /**
+     * Composes the top-level directories that have to be descended into
+     * concurrently, and then the root tree with their ids.
+     */
+    private ObjectId composeConcurrently(List<Source> sources, String commitMessage) throws IOException {
+        List<Entry> entries = group(sources, "", commitMessage);
+        List<Callable<PendingInserter>> tasks = new ArrayList<>();
+        List<Entry> subtrees = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.id == null) {
+                subtrees.add(entry);
+                tasks.add(() -> {
+                    PendingInserter pendingInserter = new PendingInserter();
+                    try (ObjectReader taskReader = readers.get()) {
+                        TreeComposer composer = new TreeComposer(taskReader, pendingInserter, recursive, null, null);
+                        entry.id = composer.compose(entry.sources, entry.path, commitMessage);
+                    }
+                    return pendingInserter;
+                });
+            }
+        }
+        if (tasks.size() < 2) {
+            for (Entry entry : subtrees) {
+                entry.id = compose(entry.sources, entry.path, commitMessage);
+            }
+            return format(entries);
+        }
+
+        List<Future<PendingInserter>> results;
+        try {
+            results = pool.invokeAll(tasks);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Composing tree failed, pool is shut down", e);
+        }
+        // Insert in order, and report the first overlap like composing in one thread would
+        for (Future<PendingInserter> result : results) {
+            try {
+                result.get().insertInto(inserter);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while composing tree", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException("Composing tree failed", e.getCause());
+            }
+        }
+        return format(entries);
+    }
+
+    /**
+     * Derives the merged tree of changed inputs from a previously merged tree,
+     * by applying only the differences between the old and new tree of each
+     * changed input. Only trees along changed paths are read and written; a
+     * directory that belonged to the changed input alone is replaced as a
+     * whole.
+     *
+     * @param previousTree
+     *            merged tree of the old sources
+     * @param oldSources
+     *            sources of the previous merge, <code>null</code> for inputs
+     *            that were not present
+     * @param newSources
+     *            sources of this merge at the same positions,
+     *            <code>null</code> for inputs that are not present
+     * @throws IllegalStateException
+     *             if a file of a changed input is present in another input
+     *             as well; as changes are applied one input after another
+     *             this can also be a file moving between inputs, so callers
+     *             should compose the tree from scratch to get the definite
+     *             answer
+     */
+    public ObjectId patch(ObjectId previousTree, List<Source> oldSources, List<Source> newSources,
+                          String commitMessage) throws IOException {
+        ObjectId treeId = previousTree;
+        for (int i = 0; i < newSources.size(); i++) {
+            treeId = patch(treeId, oldSources.get(i), newSources.get(i), "", commitMessage);
+        }
+        return treeId != null ? treeId : inserter.insert(new TreeFormatter());
+    }
+
+    private ObjectId patch(ObjectId mergedTree, Source oldSource, Source newSource, String path,
+                           String commitMessage) throws IOException {
+        if (oldSource == null && newSource == null
+                || oldSource != null && newSource != null && oldSource.isSameTree(newSource)) {
+            return mergedTree;
+        }
+        if (mergedTree == null || oldSource != null && mergedTree.equals(oldSource.treeId)) {
+            // Nothing else is in this directory, so the new tree can be taken as it is
+            return newSource == null ? null : write(newSource);
+        }
+        List<Entry> merged = new ArrayList<>();
+        new Source(null, mergedTree, null).readEntries(reader, merged);
+        List<Entry> before = new ArrayList<>();
+        if (oldSource != null) {
+            oldSource.readEntries(reader, before);
+        }
+        List<Entry> after = new ArrayList<>();
+        if (newSource != null) {
+            newSource.readEntries(reader, after);
+        }
+
+        TreeFormatter formatter = new TreeFormatter();
+        boolean empty = true;
+        int m = 0, o = 0, n = 0;
+        while (m < merged.size() || o < before.size() || n < after.size()) {
+            Entry next = min(min(get(merged, m), get(before, o)), get(after, n));
+            Entry mergedEntry = next.equalsKey(get(merged, m)) ? merged.get(m++) : null;
+            Entry oldEntry = next.equalsKey(get(before, o)) ? before.get(o++) : null;
+            Entry newEntry = next.equalsKey(get(after, n)) ? after.get(n++) : null;
+
+            if (next.isTree()) {
+                ObjectId subtreeId = patch(mergedEntry != null ? mergedEntry.id : null,
+                        oldEntry != null ? oldEntry.subtree : null,
+                        newEntry != null ? newEntry.subtree : null,
+                        path + RawParseUtils.decode(next.name) + "/", commitMessage);
+                if (subtreeId != null) {
+                    formatter.append(next.name, FileMode.TREE, subtreeId);
+                    empty = false;
+                }
+                continue;
+            }
+
+            Entry result;
+            if (oldEntry == null && newEntry == null
+                    || oldEntry != null && newEntry != null && oldEntry.isSameEntry(newEntry)) {
+                result = mergedEntry;
+            } else if (oldEntry != null || mergedEntry == null) {
+                result = newEntry;
+            } else {
+                String entryPath = path + RawParseUtils.decode(next.name);
+                throw new IllegalStateException(SubtreeMerger.getOverlapMessage(entryPath, commitMessage));
+            }
+            if (result != null) {
+                formatter.append(result.name, result.getFileMode(), result.id);
+                empty = false;
+            }
+        }
+        return empty ? null : inserter.insert(formatter);
+    }
+
+    private static Entry get(List<Entry> entries, int index) {
+        return index < entries.size() ? entries.get(index) : null;
+    }
+
+    private static Entry min(Entry a, Entry b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * @return the id of the source's tree, writing the trees of the
+     *         directories it has to be moved into first
+     */
+    private ObjectId write(Source source) throws IOException {
+        if (source.treeId != null) {
+            return source.treeId;
+        }
+        TreeFormatter formatter = new TreeFormatter();
+        formatter.append(source.name, FileMode.TREE, write(source.child));
+        return inserter.insert(formatter);
+    }
+
+    /**
+     * A tree of an input; either an existing tree object, or a directory that
+     * only contains the directory <code>name</code> with the child source.
+     */
+    public static class Source {
+
+        private final byte[] name;
+
+        private final ObjectId treeId;
+
+        private final Source child;
+
+        private Source(byte[] name, ObjectId treeId, Source child) {
+            this.name = name;
+            this.treeId = treeId;
+            this.child = child;
+        }
+
+        /**
+         * @return the tree object, <code>null</code> for a directory the
+         *         input is moved into
+         */
+        ObjectId getTreeId() {
+            return treeId;
+        }
+
+        boolean isSameTree(Source other) {
+            if (treeId != null) {
+                return treeId.equals(other.treeId);
+            }
+            return other.treeId == null && Arrays.equals(name, other.name) && child.isSameTree(other.child);
+        }
+
+        void readEntries(ObjectReader reader, List<Entry> entries) throws IOException {
+            if (treeId == null) {
+                entries.add(new Entry(name, FileMode.TYPE_TREE, null, child));
+                return;
+            }
+            CanonicalTreeParser parser = new CanonicalTreeParser();
+            parser.reset(reader, treeId);
+            METRICS.increment("trees.walked");
+            while (!parser.eof()) {
+                byte[] entryName = new byte[parser.getNameLength()];
+                parser.getName(entryName, 0);
+                int mode = parser.getEntryRawMode();
+                ObjectId id = parser.getEntryObjectId();
+                Source subtree = (mode & FileMode.TYPE_MASK) == FileMode.TYPE_TREE ? new Source(null, id, null) : null;
+                entries.add(new Entry(entryName, mode, id, subtree));
+                parser.next(1);
+            }
+        }
+    }
+
+    /**
+     * An entry of a source, ordered like git orders the entries of a tree, so
+     * that a file and a directory with the same name are different entries.
+     */
+    static class Entry implements Comparable<Entry> {
+
+        private final byte[] name;
+
+        private final int mode;
+
+        private ObjectId id;
+
+        private final Source subtree;
+
+        // Set for directories that still have to be composed from these sources
+        private List<Source> sources;
+
+        private String path;
+
+        Entry(byte[] name, int mode, ObjectId id, Source subtree) {
+            this.name = name;
+            this.mode = mode;
+            this.id = id;
+            this.subtree = subtree;
+        }
+
+        boolean equalsKey(Entry other) {
+            return other != null && compareTo(other) == 0;
+        }
+
+        boolean isSameEntry(Entry other) {
+            return mode == other.mode && id != null && id.equals(other.id);
+        }
+
+        boolean isTree() {
+            return (mode & FileMode.TYPE_MASK) == FileMode.TYPE_TREE;
+        }
+
+        String getName() {
+            return RawParseUtils.decode(name);
+        }
+
+        /**
+         * @return the source of a directory, <code>null</code> for other
+         *         entries
+         */
+        Source getSubtree() {
+            return subtree;
+        }
+
+        FileMode getFileMode() {
+            return FileMode.fromBits(mode);
+        }
+
+        ObjectId getId(TreeComposer composer) throws IOException {
+            return id != null ? id : composer.write(subtree);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Paths.compare(name, 0, name.length, mode, other.name, 0, other.name.length, other.mode);
+        }
+    }
+
+    /**
+     * Computes the ids of inserted objects and keeps them until they are
+     * inserted by the thread that owns the real inserter.
+     */
+    private static class PendingInserter extends ObjectInserter.Formatter {
+
+        private final List<Integer> types = new ArrayList<>();
+
+        private final List<byte[]> objects = new ArrayList<>();
+
+        @Override
+        public ObjectId insert(int type, byte[] data, int off, int len) {
+            types.add(type);
+            objects.add(Arrays.copyOfRange(data, off, off + len));
+            return idFor(type, data, off, len);
+        }
+
+        @Override
+        public ObjectId insert(int type, long length, InputStream in) throws IOException {
+            byte[] data = IO.readWholeStream(in, (int) length).array();
+            return insert(type, data, 0, (int) length);
+        }
+
+        void insertInto(ObjectInserter inserter) throws IOException {
+            for (int i = 0; i < objects.size(); i++) {
+                inserter.insert(types.get(i), objects.get(i));
+            }
+        }
+    }
+}
@@ -16,19 +16,27 @@ public abstract class FileUtil {
     public static final File PROPERTIES = new File("parentTag.properties");
 
     public static void saveMap(Map<String, String> map) {
+        saveMap(map, PROPERTIES);
+    }
+
+    public static void saveMap(Map<String, String> map, File file) {
         SortedProperties props = new SortedProperties();
         map.forEach((key, value) -> props.put(key, value == null ? "" : value));
 
-        try (FileOutputStream os = new FileOutputStream(PROPERTIES)) {
+        try (FileOutputStream os = new FileOutputStream(file)) {
             props.store(os, null);
         } catch (Exception e) {
             LoggerUtil.PREPARE_LOG.log(Level.SEVERE, "Unable to write properties file.");
         }
     }
 
-    public static Map loadMap() {
+    public static Map<String, String> loadMap() {
+        return loadMap(PROPERTIES);
+    }
+
+    public static Map<String, String> loadMap(File file) {
         Map<String, String> tagParentInfo = new TreeMap<>();
-        try (FileInputStream is = new FileInputStream(PROPERTIES)) {
+        try (FileInputStream is = new FileInputStream(file)) {
             Properties props = new Properties();
             props.load(is);
             props.forEach((key, value) -> {
@@ -52,5 +60,14 @@ public abstract class FileUtil {
             Collections.sort(keyList);
             return keyList.elements();
         }
+
+        // Used instead of keys() by store() since Java 9
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            Map<Object, Object> sorted = new TreeMap<>();
+            for (Map.Entry<Object, Object> entry : super.entrySet()) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+            return Collections.unmodifiableSet(sorted.entrySet());
+        }
     }
 }
@@ -0,0 +1,374 @@
+package org.nibor.git_merge_repos.vo;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Optional tuning flags given on the command-line as <code>--name=value</code>
+ * (or just <code>--name</code> for boolean flags), in addition to the
+ * positional option, output directory and repositories.
+ */
+public class MergeOptions {
+
+    private static final Pattern OPTION = Pattern.compile("--([a-z][a-z-]*)(?:=(.*))?");
+
+    private final Map<String, String> values = new HashMap<>();
+
+    public static boolean isOption(String arg) {
+        return arg.startsWith("--");
+    }
+
+    public void add(String arg) {
+        Matcher matcher = OPTION.matcher(arg);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid option '" + arg + "', expected '--name=value'");
+        }
+        String value = matcher.group(2);
+        values.put(matcher.group(1), value == null ? "true" : value);
+    }
+
+    /**
+     * @return number of input repositories fetched concurrently
+     */
+    public int getFetchThreads() {
+        return getInt("fetch-threads", 4);
+    }
+
+    /**
+     * @return number of concurrent fetches allowed against the same host, so
+     *         that a single file server is not overloaded (local paths count
+     *         as one host)
+     */
+    public int getFetchThreadsPerHost() {
+        return getInt("fetch-threads-per-host", getFetchThreads());
+    }
+
+    /**
+     * @return directory the inputs are mirrored in and read from by every
+     *         run, or <code>null</code> if they should be fetched directly
+     */
+    public File getMirrorCache() {
+        String value = values.get("mirror-cache");
+        return value == null ? null : new File(value);
+    }
+
+    /**
+     * @return how the input repositories get into the output repository
+     */
+    public InputMode getInputMode() {
+        String value = values.get("input-mode");
+        if (value == null) {
+            return InputMode.FETCH;
+        }
+        try {
+            return InputMode.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --input-mode expects fetch or link, was '" + value + "'");
+        }
+    }
+
+    /**
+     * @return whether all objects of the {@link InputMode#LINK linked} inputs
+     *         should be packed into the output repository after merging, so
+     *         that it no longer depends on them
+     */
+    public boolean isConsolidate() {
+        return getBoolean("consolidate");
+    }
+
+    /**
+     * @return file the plan command writes the merge plan to and merge starts
+     *         from, or <code>null</code> for the default of plan and no plan
+     *         for merge
+     */
+    public File getPlanFile() {
+        String value = values.get("plan");
+        return value == null ? null : new File(value);
+    }
+
+    /**
+     * @return file the check command writes the overlapping paths to
+     */
+    public File getOverlapReportFile() {
+        return new File(values.getOrDefault("overlap-report", "overlap-report.txt"));
+    }
+
+    /**
+     * @return number of tags and branches checked for overlapping inputs
+     *         concurrently by plan and check
+     */
+    public int getCheckThreads() {
+        return getInt("check-threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return whether the output repository should be bare, i.e. the output
+     *         directory is its git directory and nothing is checked out
+     */
+    public boolean isBare() {
+        return getBoolean("bare");
+    }
+
+    /**
+     * @return how master is checked out into the work tree after merging
+     */
+    public Checkout getCheckout() {
+        String value = values.get("checkout");
+        if (value == null) {
+            return Checkout.NOW;
+        }
+        try {
+            return Checkout.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --checkout expects now, defer or skip, was '" + value + "'");
+        }
+    }
+
+    /**
+     * @return whether the output repository should be rewritten into one pack
+     *         with bitmaps after merging
+     */
+    public boolean isRepack() {
+        return getBoolean("repack");
+    }
+
+    /**
+     * @return number of input repositories searched for parent tags
+     *         concurrently by prepare
+     */
+    public int getPrepareThreads() {
+        return getInt("prepare-threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return number of tag chains merged concurrently
+     */
+    public int getMergeThreads() {
+        return getInt("merge-threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return whether merge objects should be written as loose objects instead
+     *         of being streamed into pack files
+     */
+    public boolean isLooseObjects() {
+        return getBoolean("loose-objects");
+    }
+
+    /**
+     * @return number of objects after which the current pack is completed
+     */
+    public int getPackFlushObjects() {
+        return getInt("pack-flush-objects", 50000);
+    }
+
+    /**
+     * @return size in bytes after which the current pack is completed
+     */
+    public long getPackFlushBytes() {
+        return getInt("pack-flush-mb", 256) * 1024L * 1024L;
+    }
+
+    /**
+     * @return how the merged tree of a commit is built
+     */
+    public TreeMode getTreeMode() {
+        String value = values.get("tree-mode");
+        if (value == null) {
+            return TreeMode.SHALLOW;
+        }
+        try {
+            return TreeMode.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --tree-mode expects shallow, recursive or streaming, was '" + value + "'");
+        }
+    }
+
+    /**
+     * @return number of top-level directories of one merged tree composed
+     *         concurrently
+     */
+    public int getTreeThreads() {
+        return getInt("tree-threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return maximum number of merged trees remembered for reuse
+     */
+    public int getTreeCacheSize() {
+        return getInt("tree-cache-size", 10000);
+    }
+
+    /**
+     * @return file the merged tree cache is loaded from and saved to, or
+     *         <code>null</code> if it should not be kept between runs
+     */
+    public File getTreeCacheFile() {
+        String value = values.get("tree-cache-file");
+        return value == null ? null : new File(value);
+    }
+
+    /**
+     * @return whether only tags and branches that are new or have moved since
+     *         the last run should be merged, onto the merged history of that
+     *         run
+     */
+    public boolean isIncremental() {
+        return getBoolean("incremental");
+    }
+
+    /**
+     * @return file the original refs of all merged refs are saved to, which
+     *         {@link #isIncremental() incremental} runs compare against, or
+     *         <code>null</code> for <code>merge-state</code> in the git directory of
+     *         the output repository
+     */
+    public File getStateFile() {
+        String value = values.get("state-file");
+        return value == null ? null : new File(value);
+    }
+
+    /**
+     * @return whether the refs merged by an interrupted run, as recorded in
+     *         its journal, should be taken over instead of being merged again
+     */
+    public boolean isResume() {
+        return getBoolean("resume");
+    }
+
+    /**
+     * @return time in milliseconds after which a merge worker flushes its
+     *         objects and journals the refs it merged
+     */
+    public long getCheckpointMillis() {
+        return getInt("checkpoint-mins", 5) * 60L * 1000L;
+    }
+
+    /**
+     * @return interval in seconds of the progress logged while merging, 0 if
+     *         no progress should be logged
+     */
+    public int getProgressSeconds() {
+        return getInt("progress-secs", 0, 0);
+    }
+
+    /**
+     * @return maximum number of parsed commits and tags kept in memory before
+     *         they are dropped and parsed again when needed
+     */
+    public int getParsedObjectCacheSize() {
+        return getInt("parsed-object-cache", 100000);
+    }
+
+    /**
+     * @return size in bytes of the pack file windows kept in memory
+     */
+    public long getWindowCacheBytes() {
+        return getInt("window-cache-mb", 256) * 1024L * 1024L;
+    }
+
+    /**
+     * Reads every option, so that an invalid value is reported before a
+     * command starts fetching rather than when the option is first used.
+     *
+     * @throws IllegalArgumentException
+     *             if an option has an invalid value
+     */
+    public void validate() {
+        getFetchThreads();
+        getFetchThreadsPerHost();
+        getInputMode();
+        getCheckThreads();
+        getCheckout();
+        getPrepareThreads();
+        getMergeThreads();
+        getPackFlushObjects();
+        getPackFlushBytes();
+        getTreeMode();
+        getTreeThreads();
+        getTreeCacheSize();
+        getCheckpointMillis();
+        getProgressSeconds();
+        getParsedObjectCacheSize();
+        getWindowCacheBytes();
+    }
+
+    private boolean getBoolean(String name) {
+        return Boolean.parseBoolean(values.get(name));
+    }
+
+    private int getInt(String name, int defaultValue) {
+        return getInt(name, defaultValue, 1);
+    }
+
+    private int getInt(String name, int defaultValue, int min) {
+        String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result < min) {
+                throw new IllegalArgumentException("Option --" + name + " must be at least " + min + ", was " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, was '" + value + "'");
+        }
+    }
+
+    public enum Checkout {
+        /**
+         * Reset the index and the work tree to master.
+         */
+        NOW,
+        /**
+         * Only reset the index to master, so that the files can be written
+         * later, e.g. with <code>git checkout -- .</code>.
+         */
+        DEFER,
+        /**
+         * Leave index and work tree as they are.
+         */
+        SKIP
+    }
+
+    public enum InputMode {
+        /**
+         * Fetch the branches, tags and objects of every input.
+         */
+        FETCH,
+        /**
+         * Read the objects of local inputs through
+         * <code>objects/info/alternates</code> and copy just their refs;
+         * other inputs are fetched.
+         */
+        LINK
+    }
+
+    public enum TreeMode {
+        /**
+         * Only descend into directories present in more than one input and
+         * reuse all other trees as they are.
+         */
+        SHALLOW,
+        /**
+         * Descend into every directory of every input and write all trees
+         * anew.
+         */
+        RECURSIVE,
+        /**
+         * Write the same trees as {@link #RECURSIVE} while walking all files
+         * once, holding only the directories along the current path.
+         */
+        STREAMING
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
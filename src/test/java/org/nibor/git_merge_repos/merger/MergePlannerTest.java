@@ -0,0 +1,119 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nibor.git_merge_repos.util.FileUtil;
+import org.nibor.git_merge_repos.vo.MergeOptions;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MergePlannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileRepository alpha;
+
+    @Before
+    public void setUp() throws Exception {
+        assertFalse("Would overwrite " + FileUtil.PROPERTIES.getAbsolutePath(), FileUtil.PROPERTIES.exists());
+        alpha = new FileRepository(folder.newFolder("alpha.git"));
+        alpha.create(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        alpha.close();
+        Files.deleteIfExists(FileUtil.PROPERTIES.toPath());
+    }
+
+    @Test
+    public void leavesOutParentTagMergedAfterTheTag() throws Exception {
+        Map<String, String> tagParentInfo = new HashMap<>();
+        tagParentInfo.put("9.2-1", "9.3-1");
+        tagParentInfo.put("9.3-1", "9.2-2");
+        FileUtil.saveMap(tagParentInfo);
+        branchWithTags("9.2", "9.2-1", "9.2-2");
+        branchWithTags("9.3", "9.3-1");
+
+        MergeOptions options = new MergeOptions();
+        options.add("--bare");
+        MergePlanner planner = new MergePlanner(new File(folder.getRoot(), "merged.git").getPath(),
+                Collections.singletonList(new SubtreeConfig("alpha", new URIish(alpha.getDirectory().getPath()))),
+                options);
+        planner.fetch(Logger.getAnonymousLogger());
+        MergePlan plan = planner.plan();
+
+        Map<String, String> parents = new LinkedHashMap<>();
+        for (MergePlan.Entry entry : plan.getEntries()) {
+            parents.put(entry.getName(), entry.getParent());
+        }
+        Map<String, String> expected = new LinkedHashMap<>();
+        // 9.3-1 is only merged with branch 9.3, after the tags of 9.2
+        expected.put("9.2-1", null);
+        expected.put("9.2-2", "9.2-1");
+        expected.put("9.2", "9.2-2");
+        expected.put("9.3-1", "9.2-2");
+        expected.put("9.3", "9.3-1");
+        assertEquals(expected, parents);
+        assertTrue(plan.getProblems().isEmpty());
+    }
+
+    private void branchWithTags(String branch, String... tags) throws Exception {
+        ObjectId commitId = null;
+        try (ObjectInserter inserter = alpha.newObjectInserter()) {
+            for (String tag : tags) {
+                commitId = commit(inserter, commitId, tag);
+                updateRef(Constants.R_TAGS + tag, commitId);
+            }
+            commitId = commit(inserter, commitId, branch);
+            inserter.flush();
+        }
+        updateRef(Constants.R_HEADS + branch, commitId);
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, ObjectId parentId, String file) throws Exception {
+        TreeFormatter tree = new TreeFormatter();
+        tree.append(file, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, Constants.encode(file)));
+        PersonIdent ident = new PersonIdent("Test", "test@example.com", 0, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(inserter.insert(tree));
+        if (parentId != null) {
+            builder.setParentId(parentId);
+        }
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage(file);
+        return inserter.insert(builder);
+    }
+
+    private void updateRef(String refName, ObjectId id) throws Exception {
+        RefUpdate update = alpha.updateRef(refName);
+        update.setNewObjectId(id);
+        update.forceUpdate();
+    }
+}
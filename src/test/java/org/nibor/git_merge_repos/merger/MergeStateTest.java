@@ -0,0 +1,140 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MergeStateTest {
+
+    private static final ObjectId MERGED_1 = ObjectId.fromString("1111111111111111111111111111111111111111");
+
+    private static final ObjectId MERGED_2 = ObjectId.fromString("2222222222222222222222222222222222222222");
+
+    private static final ObjectId ALPHA = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+    private static final ObjectId BETA = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SubtreeConfig alpha = config("alpha");
+
+    private final SubtreeConfig beta = config("beta");
+
+    @Test
+    public void savesAndLoadsMergedRefs() throws IOException {
+        MergeState state = new MergeState();
+        state.put("refs/tags/9.2-1", MERGED_1, originals(ALPHA, BETA), null);
+        state.put("refs/heads/9.2", MERGED_2, originals(ALPHA, null), null);
+        state.put("refs/tags/9.3-1", MERGED_2, originals(ALPHA, BETA), "refs/tags/9.2-1");
+        File file = folder.newFile("merge-state");
+        state.save(file);
+
+        MergeState loaded = MergeState.load(file);
+        assertTrue(loaded.wasMerged("refs/tags/9.2-1"));
+        assertTrue(loaded.isUpToDate("refs/tags/9.2-1", originals(ALPHA, BETA), null));
+        assertTrue(loaded.isUpToDate("refs/heads/9.2", originals(ALPHA, null), null));
+        assertFalse(loaded.isUpToDate("refs/heads/9.2", originals(ALPHA, BETA), null));
+        assertFalse(loaded.isUpToDate("refs/tags/9.2-1", originals(BETA, ALPHA), null));
+        assertFalse(loaded.wasMerged("refs/tags/9.2-2"));
+        assertTrue(loaded.isUpToDate("refs/tags/9.3-1", originals(ALPHA, BETA), "refs/tags/9.2-1"));
+        assertFalse(loaded.isUpToDate("refs/tags/9.3-1", originals(ALPHA, BETA), null));
+        assertFalse(loaded.isUpToDate("refs/tags/9.3-1", originals(ALPHA, BETA), "refs/tags/9.1-4"));
+
+        File again = folder.newFile("merge-state-again");
+        loaded.save(again);
+        assertEquals(Files.readAllLines(file.toPath()), Files.readAllLines(again.toPath()));
+    }
+
+    @Test
+    public void resumesFromJournalIgnoringCutOffLine() throws IOException {
+        File journalFile = folder.newFile("merge-state.journal");
+        MergeState interrupted = new MergeState();
+        interrupted.openJournal(journalFile, false);
+        interrupted.put("refs/tags/9.2-1", MERGED_1, originals(ALPHA, BETA), null);
+        interrupted.put("refs/tags/9.2-2", MERGED_2, originals(ALPHA, BETA), null);
+        interrupted.journal(Arrays.asList("refs/tags/9.2-1", "refs/tags/9.2-2"));
+        interrupted.closeJournal();
+        // The run died while writing the line of the third ref
+        Files.write(journalFile.toPath(), (MERGED_1.name() + "\trefs/tags/9.2-3\t-\talpha\t" + ALPHA.name().substring(0, 10))
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        MergeState resumed = new MergeState();
+        resumed.loadJournal(journalFile);
+        Map<String, ObjectId> expected = new LinkedHashMap<>();
+        expected.put("refs/tags/9.2-1", MERGED_1);
+        expected.put("refs/tags/9.2-2", MERGED_2);
+        assertEquals(expected, resumed.getResumed());
+        assertTrue(resumed.isUpToDate("refs/tags/9.2-2", originals(ALPHA, BETA), null));
+        assertFalse(resumed.isUpToDate("refs/tags/9.2-3", originals(ALPHA, BETA), null));
+
+        // Continuing the journal starts a new line after the cut off one
+        resumed.openJournal(journalFile, true);
+        resumed.put("refs/tags/9.2-3", MERGED_1, originals(ALPHA, BETA), null);
+        resumed.journal(Arrays.asList("refs/tags/9.2-3"));
+        resumed.closeJournal();
+
+        MergeState resumedAgain = new MergeState();
+        resumedAgain.loadJournal(journalFile);
+        assertEquals(Arrays.asList("refs/tags/9.2-1", "refs/tags/9.2-2", "refs/tags/9.2-3"),
+                new ArrayList<>(resumedAgain.getResumed().keySet()));
+        assertTrue(resumedAgain.isUpToDate("refs/tags/9.2-3", originals(ALPHA, BETA), null));
+    }
+
+    @Test
+    public void journalsRefAfterItsParentRef() throws IOException {
+        File journalFile = folder.newFile("merge-state.journal");
+        MergeState state = new MergeState();
+        state.openJournal(journalFile, false);
+        state.put("refs/tags/9.2-1", MERGED_1, originals(ALPHA, BETA), null);
+        state.put("refs/tags/9.2-2", MERGED_2, originals(ALPHA, BETA), "refs/tags/9.2-1");
+        state.put("refs/heads/9.2", MERGED_2, originals(ALPHA, BETA), "refs/tags/9.2-2");
+        // The session of the child tag and branch flushes before the one of the parent tag
+        state.journal(Arrays.asList("refs/tags/9.2-2", "refs/heads/9.2"));
+        assertEquals(0, journalFile.length());
+
+        state.journal(Arrays.asList("refs/tags/9.2-1"));
+        state.closeJournal();
+        MergeState resumed = new MergeState();
+        resumed.loadJournal(journalFile);
+        assertEquals(Arrays.asList("refs/tags/9.2-1", "refs/tags/9.2-2", "refs/heads/9.2"),
+                new ArrayList<>(resumed.getResumed().keySet()));
+    }
+
+    private Map<SubtreeConfig, ObjectId> originals(ObjectId alphaId, ObjectId betaId) {
+        Map<SubtreeConfig, ObjectId> originals = new LinkedHashMap<>();
+        if (alphaId != null) {
+            originals.put(alpha, alphaId);
+        }
+        if (betaId != null) {
+            originals.put(beta, betaId);
+        }
+        return originals;
+    }
+
+    private static SubtreeConfig config(String name) {
+        try {
+            return new SubtreeConfig(".", new URIish("/repos/" + name + ".git"));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class OverlapAnalyzerTest {
+
+    private TestTrees trees;
+
+    private OverlapAnalyzer analyzer;
+
+    @Before
+    public void setUp() {
+        trees = new TestTrees();
+        analyzer = new OverlapAnalyzer(trees.repository, 2);
+    }
+
+    @After
+    public void tearDown() {
+        trees.close();
+    }
+
+    @Test
+    public void findsAllOverlappingPaths() throws IOException {
+        Map<SubtreeConfig, ObjectId> originals = new LinkedHashMap<>();
+        originals.put(config("alpha", "."), trees.commit(trees.tree("docs/a.md", "lib/x.jar", "README")));
+        originals.put(config("beta", "."), trees.commit(trees.tree("docs/a.md=other", "lib/y.jar", "README")));
+        originals.put(config("gamma", "lib"), trees.commit(trees.tree("x.jar", "z.jar")));
+        assertEquals(Arrays.asList("README", "docs/a.md", "lib/x.jar"), analyzer.findOverlaps(originals));
+    }
+
+    @Test
+    public void ignoresFileAndDirectoryOfSameName() throws IOException {
+        Map<SubtreeConfig, ObjectId> originals = new LinkedHashMap<>();
+        originals.put(config("alpha", "."), trees.commit(trees.tree("a", "b/c.txt")));
+        originals.put(config("beta", "."), trees.commit(trees.tree("a/d.txt", "b/e.txt")));
+        originals.put(config("gamma", "b/c.txt"), trees.commit(trees.tree("f.txt")));
+        List<String> overlaps = analyzer.findOverlaps(originals);
+        assertEquals(Collections.emptyList(), overlaps);
+
+        // Composing the merged tree doesn't report an overlap either
+        List<ObjectId> treeIds = Arrays.asList(trees.tree("a", "b/c.txt"), trees.tree("a/d.txt", "b/e.txt"),
+                trees.tree("f.txt"));
+        try (ObjectReader reader = trees.inserter.newReader()) {
+            new TreeComposer(reader, trees.inserter).compose(
+                    TestTrees.sources(Arrays.asList(".", ".", "b/c.txt"), treeIds), "Tag 1.0");
+        }
+    }
+
+    private static SubtreeConfig config(String name, String subtreeDirectory) {
+        try {
+            return new SubtreeConfig(subtreeDirectory, new URIish("/repos/" + name + ".git"));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
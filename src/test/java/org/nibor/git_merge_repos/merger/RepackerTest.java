@@ -0,0 +1,81 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.GC.RepoStatistics;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.lib.FileMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepackerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new FileRepository(folder.newFolder("merged.git"));
+        repository.create(true);
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    public void packsReachableObjectsAndRemovesTheRest() throws IOException {
+        ObjectId commitId;
+        ObjectId unreachableId;
+        // Packed like fetched and merged objects, the old packs are removed by the repack
+        try (ObjectInserter inserter = new BatchObjectInserter(repository, true, 1000, 1024 * 1024)) {
+            commitId = commit(inserter, "master");
+            // E.g. the objects of an input that only the deleted original refs pointed to
+            unreachableId = commit(inserter, "original");
+            inserter.flush();
+        }
+        RefUpdate update = repository.updateRef(Constants.R_HEADS + "master");
+        update.setNewObjectId(commitId);
+        update.forceUpdate();
+
+        new Repacker(repository, Logger.getAnonymousLogger()).repack();
+
+        RepoStatistics statistics = new GC(repository).getStatistics();
+        assertEquals(1, statistics.numberOfPackFiles);
+        assertEquals(0, statistics.numberOfLooseObjects);
+        assertEquals(1, statistics.numberOfBitmaps);
+        assertTrue(repository.hasObject(commitId));
+        assertFalse(repository.hasObject(unreachableId));
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, String file) throws IOException {
+        TreeFormatter tree = new TreeFormatter();
+        tree.append(file, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, Constants.encode(file)));
+        PersonIdent ident = new PersonIdent("Test", "test@example.com", 0, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(inserter.insert(tree));
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage(file);
+        return inserter.insert(builder);
+    }
+}
@@ -0,0 +1,154 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nibor.git_merge_repos.util.FileUtil;
+import org.nibor.git_merge_repos.vo.MergeOptions;
+import org.nibor.git_merge_repos.vo.SubtreeConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RepoMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileRepository alpha;
+
+    private FileRepository beta;
+
+    private int commits;
+
+    @Before
+    public void setUp() throws Exception {
+        assertFalse("Would overwrite " + FileUtil.PROPERTIES.getAbsolutePath(), FileUtil.PROPERTIES.exists());
+        alpha = createInput("alpha.git");
+        beta = createInput("beta.git");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        alpha.close();
+        beta.close();
+        Files.deleteIfExists(FileUtil.PROPERTIES.toPath());
+    }
+
+    @Test
+    public void incrementalRunAfterAddingRefsMergesLikeFullRun() throws Exception {
+        Map<String, String> tagParentInfo = new HashMap<>();
+        // Only there after the refs are added
+        tagParentInfo.put("9.2-1", "9.1-1");
+        // Of a later branch, so never a parent
+        tagParentInfo.put("9.4-1", "9.5-1");
+        tagParentInfo.put("9.5-1", "9.2-2");
+        FileUtil.saveMap(tagParentInfo);
+
+        branchWithTags(alpha, "9.2", "9.2-1", "9.2-2");
+        branchWithTags(alpha, "9.4", "9.4-1");
+        branchWithTags(alpha, "9.5", "9.5-1");
+        branchWithTags(beta, "9.2", "9.2-1", "9.2-2");
+        File incremental = new File(folder.getRoot(), "incremental.git");
+        merge(incremental, false);
+
+        branchWithTags(alpha, "9.1", "9.1-1");
+        // Moves 9.4-1, which gets merged again while 9.5-1 is up to date
+        branchWithTags(beta, "9.4", "9.4-1");
+        merge(incremental, true);
+        File full = new File(folder.getRoot(), "full.git");
+        merge(full, false);
+
+        Map<String, ObjectId> expected = refs(full);
+        assertEquals(Arrays.asList("refs/heads/9.1", "refs/heads/9.2", "refs/heads/9.4", "refs/heads/9.5",
+                "refs/tags/9.1-1", "refs/tags/9.2-1", "refs/tags/9.2-2", "refs/tags/9.4-1", "refs/tags/9.5-1"),
+                Arrays.asList(expected.keySet().toArray()));
+        assertEquals(expected, refs(incremental));
+    }
+
+    private void merge(File output, boolean incremental) throws Exception {
+        MergeOptions options = new MergeOptions();
+        options.add("--bare");
+        if (incremental) {
+            options.add("--incremental");
+        }
+        List<SubtreeConfig> subtreeConfigs = Arrays.asList(
+                new SubtreeConfig("alpha", new URIish(alpha.getDirectory().getPath())),
+                new SubtreeConfig("beta", new URIish(beta.getDirectory().getPath())));
+        new RepoMerger(output.getPath(), subtreeConfigs, options).run();
+    }
+
+    private FileRepository createInput(String name) throws Exception {
+        FileRepository repository = new FileRepository(folder.newFolder(name));
+        repository.create(true);
+        return repository;
+    }
+
+    private void branchWithTags(Repository repository, String branch, String... tags) throws Exception {
+        ObjectId commitId = null;
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            for (String tag : tags) {
+                commitId = commit(inserter, commitId, tag);
+                updateRef(repository, Constants.R_TAGS + tag, commitId);
+            }
+            commitId = commit(inserter, commitId, branch);
+            inserter.flush();
+        }
+        updateRef(repository, Constants.R_HEADS + branch, commitId);
+    }
+
+    private ObjectId commit(ObjectInserter inserter, ObjectId parentId, String file) throws Exception {
+        TreeFormatter tree = new TreeFormatter();
+        tree.append(file, FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, Constants.encode(file)));
+        // Fixed and increasing, so that merge commits only depend on the inputs
+        PersonIdent ident = new PersonIdent("Test", "test@example.com", ++commits * 1000L, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(inserter.insert(tree));
+        if (parentId != null) {
+            builder.setParentId(parentId);
+        }
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage(file);
+        return inserter.insert(builder);
+    }
+
+    private static void updateRef(Repository repository, String refName, ObjectId id) throws Exception {
+        RefUpdate update = repository.updateRef(refName);
+        update.setNewObjectId(id);
+        update.forceUpdate();
+    }
+
+    private static Map<String, ObjectId> refs(File output) throws Exception {
+        Map<String, ObjectId> refs = new TreeMap<>();
+        try (Repository repository = new RepositoryBuilder().setGitDir(output).setBare().build()) {
+            for (Ref ref : repository.getRefDatabase().getRefs("").values()) {
+                refs.put(ref.getName(), ref.getObjectId());
+            }
+        }
+        return refs;
+    }
+}
@@ -0,0 +1,88 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingTreeWriterTest {
+
+    private TestTrees trees;
+
+    @Before
+    public void setUp() {
+        trees = new TestTrees();
+    }
+
+    @After
+    public void tearDown() {
+        trees.close();
+    }
+
+    @Test
+    public void writesSameTreeAsRecursiveMode() throws IOException {
+        // Names around '/' in git's sort order: "a-b" < "a.c" < "a/" < "a0"
+        List<String> directories = Arrays.asList(".", ".", "modules/gamma/impl");
+        List<ObjectId> treeIds = Arrays.asList(
+                trees.tree("lib/a-b.txt", "lib/a/x/y/z.txt", "lib/a0", "README"),
+                trees.tree("lib/a.c", "lib/a/w.txt", "src/deep/er/and/deeper/B.java", "src/b.txt"),
+                trees.tree("pom.xml", "src/main/G.java", "src/test/GTest.java"));
+
+        ObjectId streamed = write(directories, treeIds);
+        assertEquals(compose(directories, treeIds), streamed);
+        assertEquals(trees.dirCacheTree(directories, treeIds), streamed);
+    }
+
+    @Test
+    public void writesSingleInputUnchanged() throws IOException {
+        ObjectId treeId = trees.tree("a/b/c.txt", "a/d.txt", "e.txt");
+        assertEquals(treeId, write(Arrays.asList("."), Arrays.asList(treeId)));
+    }
+
+    @Test
+    public void reportsOverlapLikeRecursiveMode() throws IOException {
+        List<String> directories = Arrays.asList(".", ".");
+        List<ObjectId> treeIds = Arrays.asList(trees.tree("lib/a.txt", "lib/b.txt"),
+                trees.tree("lib/b.txt=other", "lib/c.txt"));
+        String expected = null;
+        try {
+            compose(directories, treeIds);
+            fail("Expected overlap in lib/b.txt");
+        } catch (IllegalStateException e) {
+            expected = e.getMessage();
+        }
+        try {
+            write(directories, treeIds);
+            fail("Expected overlap in lib/b.txt");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("'lib/b.txt'"));
+            assertEquals(expected, e.getMessage());
+        }
+    }
+
+    private ObjectId write(List<String> directories, List<ObjectId> treeIds) throws IOException {
+        try (ObjectReader reader = trees.inserter.newReader()) {
+            ObjectId treeId = new StreamingTreeWriter(reader, trees.inserter).write(directories, treeIds, "Tag 1.0");
+            trees.inserter.flush();
+            return treeId;
+        }
+    }
+
+    private ObjectId compose(List<String> directories, List<ObjectId> treeIds) throws IOException {
+        try (ObjectReader reader = trees.inserter.newReader()) {
+            TreeComposer composer = new TreeComposer(reader, trees.inserter, true, null, null);
+            ObjectId treeId = composer.compose(TestTrees.sources(directories, treeIds), "Tag 1.0");
+            trees.inserter.flush();
+            return treeId;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagIndexTest {
+
+    private static final List<String> BRANCHES = Arrays.asList("9.3", "9.2", "master");
+
+    private static final List<String> TAGS = Arrays.asList("9.2-10", "9.2-2", "odd", "9.2-1", "9.3-x", "9.2",
+            "9.3-1", "9.2-", "9.20-1", "9.2-02", "release-1");
+
+    @Test
+    public void ordersTagsOfBranchBySequenceNumber() {
+        TagIndex index = TagIndex.build(BRANCHES, TAGS);
+        assertEquals(Arrays.asList("9.2", "9.2-1", "9.2-2", "9.2-10"), index.getTags("9.2"));
+        assertEquals(Collections.singletonList("9.3-1"), index.getTags("9.3"));
+        assertEquals("9.2", index.getFirstTag("9.2"));
+    }
+
+    @Test
+    public void keepsBranchesWithoutTags() {
+        TagIndex index = TagIndex.build(BRANCHES, TAGS);
+        assertEquals(Arrays.asList("9.2", "9.3", "master"), new ArrayList<>(index.getBranches()));
+        assertEquals(Collections.emptyList(), index.getTags("master"));
+        assertNull(index.getFirstTag("master"));
+    }
+
+    @Test
+    public void keepsGivenGrouping() {
+        Map<String, List<String>> tagsByBranch = new LinkedHashMap<>();
+        tagsByBranch.put("master", Collections.emptyList());
+        tagsByBranch.put("9.2", Arrays.asList("9.2", "9.2-1", "9.2-02", "odd"));
+        TagIndex index = TagIndex.of(tagsByBranch);
+        assertEquals(Arrays.asList("9.2", "master"), new ArrayList<>(index.getBranches()));
+        assertEquals(Arrays.asList("9.2", "9.2-1", "9.2-02", "odd"), index.getTags("9.2"));
+        assertEquals(Collections.singletonList("release-1"), index.getUngroupedTags(Arrays.asList("odd", "release-1")));
+    }
+
+    @Test
+    public void leavesOutTagsNotFollowingTheConvention() {
+        TagIndex index = TagIndex.build(BRANCHES, TAGS);
+        assertEquals(new HashSet<>(Arrays.asList("9.2", "9.2-1", "9.2-2", "9.2-10", "9.3-1")),
+                index.getGroupedTags());
+        // In the given order; 9.2-02 has the same number as 9.2-2, which came first
+        assertEquals(Arrays.asList("odd", "9.3-x", "9.2-", "9.20-1", "9.2-02", "release-1"),
+                index.getUngroupedTags(TAGS));
+    }
+
+    @Test
+    public void mergesTagsOfEarlierBranchesAndUngroupedTagsBefore() {
+        TagIndex index = TagIndex.build(BRANCHES, TAGS);
+        assertTrue(index.isMergedBefore("9.2-10", "9.3"));
+        assertFalse(index.isMergedBefore("9.3-1", "9.2"));
+        // A tag of the same branch only gets merged together with it
+        assertFalse(index.isMergedBefore("9.2-1", "9.2"));
+        assertTrue(index.isMergedBefore("release-1", "9.2"));
+        assertTrue(index.isMergedBefore("missing", "9.2"));
+    }
+}
@@ -0,0 +1,111 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trees of input repositories in an in-memory repository, and the merged tree
+ * as the original implementation built it: a recursive walk of all inputs
+ * into a {@link DirCache}.
+ */
+class TestTrees implements AutoCloseable {
+
+    final InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription("test"));
+
+    final ObjectInserter inserter = repository.newObjectInserter();
+
+    /**
+     * @param files
+     *            paths of the files, optionally followed by <code>=</code> and
+     *            the content; the content defaults to the path
+     */
+    ObjectId tree(String... files) throws IOException {
+        DirCacheBuilder builder = DirCache.newInCore().builder();
+        for (String file : files) {
+            int separator = file.indexOf('=');
+            String path = separator < 0 ? file : file.substring(0, separator);
+            String content = separator < 0 ? file : file.substring(separator + 1);
+            DirCacheEntry entry = new DirCacheEntry(path);
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, Constants.encode(content + "\n")));
+            builder.add(entry);
+        }
+        builder.finish();
+        ObjectId treeId = builder.getDirCache().writeTree(inserter);
+        inserter.flush();
+        return treeId;
+    }
+
+    ObjectId commit(ObjectId treeId) throws IOException {
+        PersonIdent ident = new PersonIdent("Test", "test@example.com", 0, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(treeId);
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage("Test");
+        ObjectId commitId = inserter.insert(builder);
+        inserter.flush();
+        return commitId;
+    }
+
+    ObjectId dirCacheTree(List<String> directories, List<ObjectId> treeIds) throws IOException {
+        try (ObjectReader reader = repository.newObjectReader();
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.setRecursive(true);
+            for (int i = 0; i < treeIds.size(); i++) {
+                if (".".equals(directories.get(i))) {
+                    treeWalk.addTree(treeIds.get(i));
+                } else {
+                    byte[] prefix = directories.get(i).getBytes(RawParseUtils.UTF8_CHARSET);
+                    treeWalk.addTree(new CanonicalTreeParser(prefix, reader, treeIds.get(i)));
+                }
+            }
+            DirCacheBuilder builder = DirCache.newInCore().builder();
+            while (treeWalk.next()) {
+                for (int i = 0; i < treeWalk.getTreeCount(); i++) {
+                    if (!treeWalk.getFileMode(i).equals(FileMode.MISSING)) {
+                        DirCacheEntry entry = new DirCacheEntry(treeWalk.getRawPath());
+                        entry.setFileMode(treeWalk.getFileMode(i));
+                        entry.setObjectId(treeWalk.getObjectId(i));
+                        builder.add(entry);
+                    }
+                }
+            }
+            builder.finish();
+            ObjectId treeId = builder.getDirCache().writeTree(inserter);
+            inserter.flush();
+            return treeId;
+        }
+    }
+
+    static List<TreeComposer.Source> sources(List<String> directories, List<ObjectId> treeIds) {
+        List<TreeComposer.Source> sources = new ArrayList<>();
+        for (int i = 0; i < treeIds.size(); i++) {
+            sources.add(TreeComposer.source(treeIds.get(i), directories.get(i)));
+        }
+        return sources;
+    }
+
+    @Override
+    public void close() {
+        inserter.close();
+        repository.close();
+    }
+}
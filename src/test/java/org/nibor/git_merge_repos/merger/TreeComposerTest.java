@@ -0,0 +1,129 @@
+package org.nibor.git_merge_repos.merger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TreeComposerTest {
+
+    private TestTrees trees;
+
+    private ForkJoinPool pool;
+
+    private List<String> directories;
+
+    private List<ObjectId> treeIds;
+
+    @Before
+    public void setUp() throws IOException {
+        trees = new TestTrees();
+        pool = new ForkJoinPool(4);
+        directories = Arrays.asList(".", ".", "modules/gamma", "src/delta");
+        treeIds = Arrays.asList(
+                trees.tree("src/alpha/A.java", "src/alpha/util/U.java", "docs/alpha.md", "alpha.txt"),
+                trees.tree("src/beta/B.java", "docs/beta.md", "lib/beta.jar", "beta.txt"),
+                trees.tree("pom.xml", "src/G.java"),
+                trees.tree("D.java"));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        trees.close();
+    }
+
+    @Test
+    public void composesSameTreeAsDirCache() throws IOException {
+        ObjectId expected = trees.dirCacheTree(directories, treeIds);
+        assertEquals(expected, compose(false, null));
+        assertEquals(expected, compose(false, pool));
+        assertEquals(expected, compose(true, null));
+        assertEquals(expected, compose(true, pool));
+    }
+
+    @Test
+    public void reportsOverlapWhenComposingConcurrently() throws IOException {
+        treeIds = Arrays.asList(treeIds.get(0), trees.tree("src/beta/B.java", "docs/alpha.md=other"),
+                treeIds.get(2), treeIds.get(3));
+        for (boolean recursive : new boolean[]{false, true}) {
+            try {
+                compose(recursive, pool);
+                fail("Expected overlap in docs/alpha.md");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("'docs/alpha.md'"));
+                assertTrue(e.getMessage(), e.getMessage().endsWith("Tag 1.0"));
+            }
+        }
+    }
+
+    @Test
+    public void patchesSameTreeAsFullCompose() throws IOException {
+        ObjectId previousTree = compose(false, null);
+        List<ObjectId> oldTreeIds = treeIds;
+
+        // Alpha changes a file, adds a directory and empties src/alpha/util, gamma is
+        // gone and epsilon is new
+        directories = Arrays.asList(".", ".", "modules/gamma", "src/delta", "modules/epsilon");
+        treeIds = Arrays.asList(
+                trees.tree("src/alpha/A.java", "src/alpha/new/N.java", "docs/alpha.md=changed", "alpha.txt"),
+                oldTreeIds.get(1),
+                null,
+                trees.tree("D.java", "E.java"),
+                trees.tree("pom.xml"));
+        List<TreeComposer.Source> oldSources = Arrays.asList(
+                TreeComposer.source(oldTreeIds.get(0), "."), TreeComposer.source(oldTreeIds.get(1), "."),
+                TreeComposer.source(oldTreeIds.get(2), "modules/gamma"),
+                TreeComposer.source(oldTreeIds.get(3), "src/delta"), null);
+        List<TreeComposer.Source> newSources = Arrays.asList(
+                TreeComposer.source(treeIds.get(0), "."), TreeComposer.source(treeIds.get(1), "."), null,
+                TreeComposer.source(treeIds.get(3), "src/delta"),
+                TreeComposer.source(treeIds.get(4), "modules/epsilon"));
+
+        ObjectId patched;
+        try (ObjectReader reader = trees.inserter.newReader()) {
+            patched = new TreeComposer(reader, trees.inserter).patch(previousTree, oldSources, newSources, "Tag 1.1");
+            trees.inserter.flush();
+        }
+
+        directories = Arrays.asList(".", ".", "src/delta", "modules/epsilon");
+        treeIds = Arrays.asList(treeIds.get(0), treeIds.get(1), treeIds.get(3), treeIds.get(4));
+        assertEquals(compose(false, null), patched);
+        assertEquals(trees.dirCacheTree(directories, treeIds), patched);
+    }
+
+    @Test
+    public void reportsOverlapWhenPatching() throws IOException {
+        ObjectId previousTree = compose(false, null);
+        ObjectId changed = trees.tree("src/beta/B.java", "docs/beta.md", "docs/alpha.md", "beta.txt");
+        List<TreeComposer.Source> oldSources = TestTrees.sources(directories, treeIds);
+        List<TreeComposer.Source> newSources = TestTrees.sources(directories,
+                Arrays.asList(treeIds.get(0), changed, treeIds.get(2), treeIds.get(3)));
+        try (ObjectReader reader = trees.inserter.newReader()) {
+            new TreeComposer(reader, trees.inserter).patch(previousTree, oldSources, newSources, "Tag 1.1");
+            fail("Expected overlap in docs/alpha.md");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("'docs/alpha.md'"));
+        }
+    }
+
+    private ObjectId compose(boolean recursive, ForkJoinPool pool) throws IOException {
+        try (ObjectReader reader = trees.inserter.newReader()) {
+            TreeComposer composer = new TreeComposer(reader, trees.inserter, recursive, pool,
+                    trees.inserter::newReader);
+            ObjectId treeId = composer.compose(TestTrees.sources(directories, treeIds), "Tag 1.0");
+            trees.inserter.flush();
+            return treeId;
+        }
+    }
+}
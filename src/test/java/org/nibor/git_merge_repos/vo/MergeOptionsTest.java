@@ -0,0 +1,30 @@
+package org.nibor.git_merge_repos.vo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MergeOptionsTest {
+
+    @Test
+    public void acceptsNoProgress() {
+        MergeOptions options = new MergeOptions();
+        options.add("--progress-secs=0");
+        options.validate();
+        assertEquals(0, options.getProgressSeconds());
+    }
+
+    @Test
+    public void rejectsInvalidValuesUpFront() {
+        MergeOptions options = new MergeOptions();
+        options.add("--merge-threads=0");
+        try {
+            options.validate();
+            fail("Expected --merge-threads=0 to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("--merge-threads must be at least 1"));
+        }
+    }
+}